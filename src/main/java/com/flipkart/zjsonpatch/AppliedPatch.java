@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The outcome of applying a patch: the resulting document, along with the inverse patch which turns it back into the
+ * original document.
+ *
+ * <pre>
+ *      AppliedPatch applied = JsonPatch.applyWithInverse(patch, source);
+ *      JsonNode target = applied.getResult();
+ *      JsonNode undo = applied.getInverse();
+ *      assert(JsonPatch.apply(undo, target).equals(source));
+ * </pre>
+ *
+ * <p>The inverse patch only holds the values displaced by the patch, and references them instead of copying them. A
+ * value moved over an existing one is the exception: the inverse adds it back from a copy.
+ *
+ * @since 0.4.10
+ */
+public final class AppliedPatch {
+    private final JsonNode result;
+    private final JsonNode inverse;
+
+    AppliedPatch(JsonNode result, JsonNode inverse) {
+        this.result = result;
+        this.inverse = inverse;
+    }
+
+    /** Returns the patched document. */
+    public JsonNode getResult() {
+        return result;
+    }
+
+    /** Returns an RFC 6902 patch which undoes the applied patch when applied to the {@link #getResult() result}. */
+    public JsonNode getInverse() {
+        return inverse;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The elements of an array edited by a run of operations, kept in blocks so that inserting or removing an element
+ * only shifts the other elements of its block. The array itself is rebuilt once, when the run ends.
+ */
+final class ArrayEdits {
+    private static final int BLOCK_SIZE = 128;
+
+    private final List<List<JsonNode>> blocks = new ArrayList<List<JsonNode>>();
+    private int size;
+
+    // the block looked up last, and the position of its first element: runs of operations tend to stay close together
+    private int cursor;
+    private int cursorStart;
+
+    ArrayEdits(ArrayNode array) {
+        List<JsonNode> block = null;
+        for (JsonNode element : array) {
+            if (block == null || block.size() == BLOCK_SIZE) {
+                block = new ArrayList<JsonNode>(2 * BLOCK_SIZE);
+                blocks.add(block);
+            }
+            block.add(element);
+        }
+        if (blocks.isEmpty())
+            blocks.add(new ArrayList<JsonNode>(2 * BLOCK_SIZE));
+        size = array.size();
+    }
+
+    int size() {
+        return size;
+    }
+
+    JsonNode get(int position) {
+        return seek(position).get(position - cursorStart);
+    }
+
+    /** Sets the element at the specified position, returning the previous one. */
+    JsonNode set(int position, JsonNode value) {
+        return seek(position).set(position - cursorStart, value);
+    }
+
+    /** Inserts the value at the specified position, between {@code 0} and {@link #size()} inclusive. */
+    void insert(int position, JsonNode value) {
+        List<JsonNode> block = seek(position);
+        block.add(position - cursorStart, value);
+        size++;
+        if (block.size() > 2 * BLOCK_SIZE) {
+            List<JsonNode> tail = block.subList(BLOCK_SIZE, block.size());
+            List<JsonNode> split = new ArrayList<JsonNode>(2 * BLOCK_SIZE);
+            split.addAll(tail);
+            tail.clear();
+            blocks.add(cursor + 1, split);
+        }
+    }
+
+    /** Removes the element at the specified position, returning it. */
+    JsonNode remove(int position) {
+        List<JsonNode> block = seek(position);
+        JsonNode removed = block.remove(position - cursorStart);
+        size--;
+        if (block.isEmpty() && blocks.size() > 1) {
+            blocks.remove(cursor);
+            if (cursor == blocks.size()) {
+                cursor--;
+                cursorStart -= blocks.get(cursor).size();
+            }
+        }
+        return removed;
+    }
+
+    /** Returns the elements in order, which the edited array is rebuilt from. */
+    List<JsonNode> elements() {
+        List<JsonNode> elements = new ArrayList<JsonNode>(size);
+        for (List<JsonNode> block : blocks) {
+            elements.addAll(block);
+        }
+        return elements;
+    }
+
+    /** Moves the cursor to the block holding the specified position, or to the last block for the end of the array. */
+    private List<JsonNode> seek(int position) {
+        while (position < cursorStart) {
+            cursor--;
+            cursorStart -= blocks.get(cursor).size();
+        }
+        while (cursor < blocks.size() - 1 && position >= cursorStart + blocks.get(cursor).size()) {
+            cursorStart += blocks.get(cursor).size();
+            cursor++;
+        }
+        return blocks.get(cursor);
+    }
+}
@@ -24,7 +24,46 @@ import java.util.EnumSet;
 public enum CompatibilityFlags {
     MISSING_VALUES_AS_NULLS,
     REMOVE_NONE_EXISTING_ARRAY_ELEMENT,
-    ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE;
+    ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE,
+
+    /**
+     * Attaches the values of add and replace operations to the target document as they are, instead of copying them.
+     * This hands the ownership of the patch over to the document: the patch must not be used or modified afterwards.
+     *
+     * <p>Compiled patches are applied many times, and always copy their values.
+     *
+     * @since 0.4.10
+     */
+    ATTACH_PATCH_VALUES_WITHOUT_COPY,
+
+    /**
+     * Lets {@code apply} share the nodes which the patch does not modify between the source and the result, instead
+     * of copying the whole source first. Only the containers along the modified paths are copied, so the source is
+     * still left unchanged; the result however must not be modified in place afterwards, unless the source is no
+     * longer used.
+     *
+     * @since 0.4.10
+     */
+    SHARE_UNMODIFIED_SOURCE_NODES,
+
+    /**
+     * Makes {@code applyInPlace} all-or-nothing: if an operation fails, the modifications made by the previous
+     * operations are undone before the exception is thrown. Undoing them costs as much as making them, and no copy
+     * of the document is needed.
+     *
+     * @since 0.4.10
+     */
+    ROLL_BACK_ON_FAILURE,
+
+    /**
+     * Groups the consecutive operations adding, removing, replacing or testing elements of the same array, and
+     * rebuilds the array once at the end of each group instead of shifting its elements on every operation. This
+     * pays off for patches inserting or removing many elements of large arrays, like the ones produced by
+     * {@link JsonDiff}; failures are reported like without this flag.
+     *
+     * @since 0.4.10
+     */
+    BATCH_ARRAY_EDITS;
 
     public static EnumSet<CompatibilityFlags> defaults() {
         return EnumSet.noneOf(CompatibilityFlags.class);
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.EnumSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A JSON patch which has been parsed and validated once, and can then be applied any number of times.
+ *
+ * <pre>
+ *      CompiledPatch compiled = JsonPatch.compile(patch, CompatibilityFlags.defaults());
+ *      for (JsonNode document : documents)
+ *          compiled.applyInPlace(document);
+ * </pre>
+ *
+ * <p>Instances are immutable and can be shared between threads: they hold their own copy of the values of the
+ * patch, which is copied again whenever a value is added to a document.
+ *
+ * @since 0.4.10
+ */
+public final class CompiledPatch {
+    private final PatchOperation[] operations;
+    private final EnumSet<CompatibilityFlags> flags;
+
+    CompiledPatch(PatchOperation[] operations, EnumSet<CompatibilityFlags> flags) {
+        this.operations = operations;
+        this.flags = EnumSet.copyOf(flags);
+    }
+
+    /** Returns the number of operations in this patch. */
+    public int size() {
+        return operations.length;
+    }
+
+    /**
+     * Applies this patch to a copy of the source document, leaving the source unchanged.
+     *
+     * @return The patched copy of the source document.
+     * @throws JsonPatchApplicationException The patch could not be applied to the document.
+     */
+    public JsonNode apply(JsonNode source) throws JsonPatchApplicationException {
+        InPlaceApplyProcessor processor = CopyingApplyProcessor.forSource(source, flags);
+        applyTo(processor);
+        return processor.result();
+    }
+
+    /**
+     * Applies this patch to a copy of the source document, and records the inverse patch along the way.
+     *
+     * @return The patched copy of the source document, and the patch turning it back into the source.
+     * @throws JsonPatchApplicationException The patch could not be applied to the document.
+     */
+    public AppliedPatch applyWithInverse(JsonNode source) throws JsonPatchApplicationException {
+        InPlaceApplyProcessor processor = CopyingApplyProcessor.forSource(source, flags);
+        InversePatchBuilder inverse = new InversePatchBuilder();
+        processor.recordInverse(inverse);
+        applyTo(processor);
+        return new AppliedPatch(processor.result(), inverse.build());
+    }
+
+    /**
+     * Applies this patch to the source document, mutating it.
+     *
+     * @throws JsonPatchApplicationException The patch could not be applied to the document.
+     */
+    public void applyInPlace(JsonNode source) throws JsonPatchApplicationException {
+        applyInPlace(InPlaceApplyProcessor.forTarget(source, flags));
+    }
+
+    /**
+     * Applies this patch to the source document, mutating it, and records the inverse patch along the way.
+     *
+     * @return The patched document, which is the source unless the patch replaced the root, and the patch turning it
+     * back into the original source.
+     * @throws JsonPatchApplicationException The patch could not be applied to the document.
+     */
+    public AppliedPatch applyInPlaceWithInverse(JsonNode source) throws JsonPatchApplicationException {
+        InPlaceApplyProcessor processor = InPlaceApplyProcessor.forTarget(source, flags);
+        InversePatchBuilder inverse = new InversePatchBuilder();
+        processor.recordInverse(inverse);
+        applyInPlace(processor);
+        return new AppliedPatch(processor.result(), inverse.build());
+    }
+
+    /**
+     * Applies this patch to a copy of the source document, applying the operations on disjoint subtrees concurrently.
+     *
+     * @see #applyInPlace(JsonNode, ForkJoinPool, int)
+     * @return The patched copy of the source document.
+     * @throws JsonPatchApplicationException The patch could not be applied to the document.
+     */
+    public JsonNode apply(JsonNode source, ForkJoinPool pool, int depth) throws JsonPatchApplicationException {
+        return new ParallelApplier(operations, flags, pool, depth).apply(source.deepCopy());
+    }
+
+    /**
+     * Applies this patch to the source document, mutating it, and applying the operations on disjoint subtrees
+     * concurrently. The result is the same as the one of {@link #applyInPlace(JsonNode)}, as long as the nodes of the
+     * document are not shared between several of its paths.
+     * <p>
+     * The operations are grouped by the subtree their paths are in, which is identified by the first {@code depth}
+     * reference tokens of the paths. The groups are applied concurrently, each one in order by a single task, and a
+     * move or copy between two subtrees puts their operations in the same group. An operation on a shorter path, which
+     * changes the containers holding the subtrees, waits for the previous operations to be applied before the next
+     * ones are. If an operation fails, the exception of the first failing operation is thrown, but the other groups
+     * may have been applied further than it: roll the modifications back with
+     * {@link CompatibilityFlags#ROLL_BACK_ON_FAILURE} to get the same document as when applying the patch sequentially.
+     *
+     * @param pool The pool running the tasks applying the groups.
+     * @param depth The number of leading reference tokens identifying a subtree, at least 1.
+     * @throws JsonPatchApplicationException The patch could not be applied to the document.
+     */
+    public void applyInPlace(JsonNode source, ForkJoinPool pool, int depth) throws JsonPatchApplicationException {
+        new ParallelApplier(operations, flags, pool, depth).apply(source);
+    }
+
+    /** Applies this patch to the source document in place, applying the operations on each top-level member concurrently. */
+    public void applyInPlace(JsonNode source, ForkJoinPool pool) throws JsonPatchApplicationException {
+        applyInPlace(source, pool, 1);
+    }
+
+    private void applyInPlace(InPlaceApplyProcessor processor) {
+        try {
+            applyTo(processor);
+            processor.flush();
+        } catch (RuntimeException e) {
+            processor.rollback();
+            throw e;
+        }
+    }
+
+    void applyTo(JsonPatchProcessor processor) throws JsonPatchApplicationException {
+        for (PatchOperation operation : operations) {
+            operation.applyTo(processor);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+
+/**
+ * The containers along the path resolved last in a document, so that resolving a path sharing a prefix with it
+ * resumes from the deepest shared container instead of the root.
+ *
+ * <p>A cached container stays valid until one of its ancestors is modified: every modification of a container must
+ * be reported through {@link #invalidate}, which forgets the containers below it.
+ */
+final class ContainerCursor {
+    // nodes[i] is the node reached from the root through tokens[0] to tokens[i - 1]
+    private JsonNode[] nodes = new JsonNode[8];
+    private JsonPointer.RefToken[] tokens = new JsonPointer.RefToken[8];
+    private int depth;
+
+    /** Forgets every cached container, and starts again from the specified root. */
+    void reset(JsonNode root) {
+        nodes[0] = root;
+        depth = 1;
+    }
+
+    /** Returns the number of leading tokens of the parent of the path which lead to cached nodes. */
+    int shared(JsonPointer path) {
+        int limit = Math.min(depth - 1, path.size() - 1);
+        int level = 0;
+        while (level < limit && tokens[level].equals(path.get(level)))
+            level++;
+        return level;
+    }
+
+    /** Returns the cached node reached through the specified number of leading tokens. */
+    JsonNode get(int level) {
+        return nodes[level];
+    }
+
+    /** Caches the node reached through the specified number of leading tokens, forgetting the deeper ones. */
+    void set(int level, JsonPointer.RefToken token, JsonNode node) {
+        if (level == nodes.length) {
+            nodes = Arrays.copyOf(nodes, 2 * level);
+            tokens = Arrays.copyOf(tokens, 2 * level);
+        }
+        tokens[level - 1] = token;
+        nodes[level] = node;
+        depth = level + 1;
+    }
+
+    /** Forgets the cached nodes below the specified container, whose children are about to change. */
+    void invalidate(JsonNode container) {
+        for (int level = depth - 1; level >= 0; level--) {
+            if (nodes[level] == container) {
+                depth = level + 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the child of a container at the specified token, like {@link JsonPointer#evaluate} would, or
+     * {@code null} if there is no such child.
+     */
+    static JsonNode child(JsonNode container, JsonPointer.RefToken token) {
+        if (container.isArray()) {
+            if (!token.isArrayIndex() || token.getIndex() == JsonPointer.LAST_INDEX)
+                return null;
+            return container.get(token.getIndex());
+        }
+        if (container.isObject())
+            return container.get(token.getField());
+        return null;
+    }
+}
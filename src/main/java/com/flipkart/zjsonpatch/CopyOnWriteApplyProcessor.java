@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies a patch without modifying the source document, and without copying it either: the containers along each
+ * modified path are cloned on their first modification, and every other node of the result is shared with the source.
+ */
+class CopyOnWriteApplyProcessor extends InPlaceApplyProcessor {
+
+    /** The cloned containers, which belong to the result only and can be modified in place. */
+    private final Set<JsonNode> owned = Collections.newSetFromMap(new IdentityHashMap<JsonNode, Boolean>());
+
+    CopyOnWriteApplyProcessor(JsonNode source) {
+        this(source, CompatibilityFlags.defaults());
+    }
+
+    CopyOnWriteApplyProcessor(JsonNode source, EnumSet<CompatibilityFlags> flags) {
+        super(source, flags);
+    }
+
+    @Override
+    JsonNode resolveParentForUpdate(JsonPointer path) throws JsonPointerEvaluationException {
+        JsonNode root = result();
+        if (!root.isContainerNode())
+            return super.resolveParentForUpdate(path);
+
+        // resume from the deepest cached container which is owned already, like all of its ancestors
+        ContainerCursor cursor = cursor();
+        int level = cursor.shared(path);
+        while (level > 0 && !owned.contains(cursor.get(level)))
+            level--;
+        JsonNode current = cursor.get(level);
+        if (level == 0) {
+            current = own(root);
+            if (current != root)
+                setResult(current);
+        }
+
+        for (int length = path.size() - 1; level < length; level++) {
+            JsonPointer.RefToken token = path.get(level);
+            JsonNode child = ContainerCursor.child(current, token);
+            if (child == null || !child.isContainerNode())
+                return super.resolveParentForUpdate(path);     // let the evaluation report the error
+            JsonNode ownedChild = own(child);
+            if (ownedChild != child) {
+                if (current.isObject())
+                    putField((ObjectNode) current, token.getField(), ownedChild);
+                else
+                    setElement((ArrayNode) current, token.getIndex(), ownedChild);
+            }
+            cursor.set(level + 1, token, ownedChild);
+            current = ownedChild;
+        }
+        return current;
+    }
+
+    /** Shares the parts of the value which are not owned by the result, and copies the others. */
+    @Override
+    JsonNode copyValue(JsonNode value) {
+        if (value == null || !owned.contains(value))
+            return value;
+        if (value.isObject()) {
+            ObjectNode copy = ((ObjectNode) value).objectNode();
+            Iterator<Map.Entry<String, JsonNode>> fields = value.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                copy.set(field.getKey(), copyValue(field.getValue()));
+            }
+            return copy;
+        }
+        ArrayNode copy = ((ArrayNode) value).arrayNode();
+        for (JsonNode element : value) {
+            copy.add(copyValue(element));
+        }
+        return copy;
+    }
+
+    /** Returns the container itself if it is owned by the result, or else an owned shallow clone of it. */
+    private JsonNode own(JsonNode container) {
+        if (owned.contains(container))
+            return container;
+        JsonNode clone;
+        if (container.isObject())
+            clone = ((ObjectNode) container).objectNode().setAll((ObjectNode) container);
+        else
+            clone = ((ArrayNode) container).arrayNode().addAll((ArrayNode) container);
+        owned.add(clone);
+        return clone;
+    }
+}
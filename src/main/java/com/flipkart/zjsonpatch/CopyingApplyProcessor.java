@@ -12,4 +12,11 @@ class CopyingApplyProcessor extends InPlaceApplyProcessor {
     CopyingApplyProcessor(JsonNode target, EnumSet<CompatibilityFlags> flags) {
         super(target.deepCopy(), flags);
     }
+
+    /** Returns a processor which leaves the source unchanged, sharing its nodes with the result if the flags allow it. */
+    static InPlaceApplyProcessor forSource(JsonNode source, EnumSet<CompatibilityFlags> flags) {
+        if (flags.contains(CompatibilityFlags.SHARE_UNMODIFIED_SOURCE_NODES))
+            return new CopyOnWriteApplyProcessor(source, flags);
+        return new CopyingApplyProcessor(source, flags);
+    }
 }
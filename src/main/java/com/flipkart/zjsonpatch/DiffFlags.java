@@ -51,7 +51,32 @@ public enum DiffFlags {
      *
      * @since 0.4.8
      */
-    EMIT_TEST_OPERATIONS;
+    EMIT_TEST_OPERATIONS,
+
+    /**
+     * This flag makes the diff generator compute a structural hash and size for every node of
+     * both documents once, and use them to rule out unequal subtrees without comparing them
+     * node by node. Equality is still confirmed by a deep comparison when hashes match.
+     *
+     * This considerably speeds up diffing of large, deeply nested documents at the cost of some
+     * extra memory for the duration of the diff. The documents must not be modified concurrently.
+     *
+     * @since 0.4.10
+     */
+    CACHE_STRUCTURAL_HASHES,
+
+    /**
+     * This flag makes the diff generator match the elements of arrays by key rather than by position,
+     * for arrays whose key is configured with {@link DiffOptions#withArrayElementKeyField(String)} or
+     * {@link DiffOptions#withArrayElementKeyExtractor(String, java.util.function.Function)}. Elements with the
+     * same key are diffed against each other, and reordered elements are expressed as {@link Operation#MOVE}
+     * operations.
+     *
+     * Arrays in which some element has no key, or in which a key is not unique, are diffed by position.
+     *
+     * @since 0.4.10
+     */
+    MATCH_ARRAY_ELEMENTS_BY_KEY;
 
 
     public static EnumSet<DiffFlags> defaults() {
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Tuning parameters for {@link JsonDiff} which, unlike {@link DiffFlags}, carry a value.
+ *
+ * <p>Instances are immutable; the {@code with...} methods return a modified copy:
+ *
+ * <pre>
+ *      DiffOptions options = DiffOptions.defaults().withLinearSpaceThreshold(1000000);
+ *      JsonNode patch = JsonDiff.asJson(source, target, DiffFlags.defaults(), options);
+ * </pre>
+ *
+ * @since 0.4.10
+ */
+public final class DiffOptions {
+
+    /** Default value for {@link #getLinearSpaceThreshold()}: 16M cells, i.e. 64MB worth of {@code int}s. */
+    public static final long DEFAULT_LINEAR_SPACE_THRESHOLD = 16L * 1024 * 1024;
+
+    /** Default value for {@link #getParallelThreshold()}. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+
+    private static final DiffOptions DEFAULTS = new DiffOptions(DEFAULT_LINEAR_SPACE_THRESHOLD,
+            DEFAULT_PARALLEL_THRESHOLD, null, Collections.<KeyedArray>emptyList());
+
+    private final long linearSpaceThreshold;
+    private final int parallelThreshold;
+    private final Function<? super JsonNode, ?> fieldKeyExtractor;
+    private final List<KeyedArray> keyedArrays;
+
+    private static final class KeyedArray {
+        private final JsonPointer path;
+        private final Function<? super JsonNode, ?> keyExtractor;
+
+        private KeyedArray(JsonPointer path, Function<? super JsonNode, ?> keyExtractor) {
+            this.path = path;
+            this.keyExtractor = keyExtractor;
+        }
+
+        private boolean matches(JsonPointer arrayPath) {
+            if (arrayPath.size() != path.size())
+                return false;
+            for (int i = 0; i < path.size(); i++) {
+                String field = path.get(i).getField();
+                if (!WILDCARD.equals(field) && !field.equals(arrayPath.get(i).getField()))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static final String WILDCARD = "*";
+
+    private DiffOptions(long linearSpaceThreshold, int parallelThreshold, Function<? super JsonNode, ?> fieldKeyExtractor,
+                        List<KeyedArray> keyedArrays) {
+        this.linearSpaceThreshold = linearSpaceThreshold;
+        this.parallelThreshold = parallelThreshold;
+        this.fieldKeyExtractor = fieldKeyExtractor;
+        this.keyedArrays = keyedArrays;
+    }
+
+    public static DiffOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Returns the maximum number of cells the array matcher may hold in memory while computing the
+     * longest common subsequence of two arrays. Arrays whose edit distance would require more than
+     * that are matched with a slower, linear-space algorithm instead.
+     */
+    public long getLinearSpaceThreshold() {
+        return linearSpaceThreshold;
+    }
+
+    /**
+     * @param linearSpaceThreshold See {@link #getLinearSpaceThreshold()}; {@code 0} always uses the linear-space algorithm.
+     * @return A copy of this instance with the specified threshold.
+     * @throws IllegalArgumentException The threshold is negative.
+     */
+    public DiffOptions withLinearSpaceThreshold(long linearSpaceThreshold) {
+        if (linearSpaceThreshold < 0)
+            throw new IllegalArgumentException("Linear space threshold can't be negative");
+        return new DiffOptions(linearSpaceThreshold, parallelThreshold, fieldKeyExtractor, keyedArrays);
+    }
+
+    /**
+     * Returns the number of nodes, counting both sides, above which the children of two containers are diffed by
+     * separate tasks when diffing on a {@link java.util.concurrent.ForkJoinPool}. Consecutive children are batched
+     * into tasks of about that many nodes.
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @param parallelThreshold See {@link #getParallelThreshold()}.
+     * @return A copy of this instance with the specified threshold.
+     * @throws IllegalArgumentException The threshold is not positive.
+     */
+    public DiffOptions withParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 1)
+            throw new IllegalArgumentException("Parallel threshold must be positive");
+        return new DiffOptions(linearSpaceThreshold, parallelThreshold, fieldKeyExtractor, keyedArrays);
+    }
+
+    /**
+     * Sets the name of the field identifying the elements of arrays of objects. Only takes effect with
+     * {@link DiffFlags#MATCH_ARRAY_ELEMENTS_BY_KEY}, and for arrays with no key extractor registered through
+     * {@link #withArrayElementKeyExtractor(String, Function)}.
+     *
+     * @param fieldName The key field name, e.g. {@code "id"}.
+     * @return A copy of this instance with the specified key field.
+     */
+    public DiffOptions withArrayElementKeyField(final String fieldName) {
+        if (fieldName == null)
+            throw new IllegalArgumentException("Key field name can't be null");
+        Function<JsonNode, Object> keyExtractor = new Function<JsonNode, Object>() {
+            @Override
+            public Object apply(JsonNode element) {
+                return element.get(fieldName);
+            }
+        };
+        return new DiffOptions(linearSpaceThreshold, parallelThreshold, keyExtractor, keyedArrays);
+    }
+
+    /**
+     * Registers a function computing the key identifying each element of the arrays at the specified path.
+     * Only takes effect with {@link DiffFlags#MATCH_ARRAY_ELEMENTS_BY_KEY}. Keys are compared with
+     * {@link Object#equals(Object)}; a {@code null} key marks the element as having no key.
+     *
+     * @param arrayPath A JSON pointer to the array. A reference token of {@code *}
+     *                  matches any field name or array index, e.g. {@code /orders/*&#47;lines}.
+     * @param keyExtractor The function computing the key of an array element.
+     * @return A copy of this instance with the specified key extractor. Extractors registered first take precedence.
+     * @throws IllegalArgumentException The specified path is not a valid JSON pointer.
+     */
+    public DiffOptions withArrayElementKeyExtractor(String arrayPath, Function<? super JsonNode, ?> keyExtractor) {
+        if (keyExtractor == null)
+            throw new IllegalArgumentException("Key extractor can't be null");
+        List<KeyedArray> newKeyedArrays = new ArrayList<KeyedArray>(keyedArrays);
+        newKeyedArrays.add(new KeyedArray(JsonPointer.parse(arrayPath), keyExtractor));
+        return new DiffOptions(linearSpaceThreshold, parallelThreshold, fieldKeyExtractor, Collections.unmodifiableList(newKeyedArrays));
+    }
+
+    /**
+     * Returns the function computing keys of the elements of the array at the specified path,
+     * or {@code null} if no key has been configured for it.
+     */
+    Function<? super JsonNode, ?> getArrayElementKeyExtractor(JsonPointer arrayPath) {
+        for (KeyedArray keyedArray : keyedArrays) {
+            if (keyedArray.matches(arrayPath))
+                return keyedArray.keyExtractor;
+        }
+        return fieldKeyExtractor;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+/**
+ * A binary indexed (Fenwick) tree over a fixed number of int slots, supporting point updates
+ * and range sums in O(log n).
+ */
+final class FenwickTree {
+    private final int[] tree;
+
+    FenwickTree(int size) {
+        this.tree = new int[size + 1];
+    }
+
+    /** Adds {@code delta} to the slot at the specified index. */
+    void add(int index, int delta) {
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /** Returns the sum of the slots in {@code [0, end)}. */
+    int prefixSum(int end) {
+        int sum = 0;
+        for (int i = end; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /** Returns the sum of the slots in {@code [from, to)}. */
+    int sum(int from, int to) {
+        return from >= to ? 0 : prefixSum(to) - prefixSum(from);
+    }
+}
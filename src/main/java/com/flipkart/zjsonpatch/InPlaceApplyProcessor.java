@@ -21,11 +21,22 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.util.EnumSet;
+import java.util.List;
 
 class InPlaceApplyProcessor implements JsonPatchProcessor {
 
     private JsonNode target;
     private EnumSet<CompatibilityFlags> flags;
+    private InversePatchBuilder inverse;
+    private final ContainerCursor cursor = new ContainerCursor();
+
+    // with BATCH_ARRAY_EDITS, the array edited by the current run of element operations, and its pending edits
+    private final boolean batchArrayEdits;
+    private JsonPointer batchPath;
+    private ArrayNode batchArray;
+    private ArrayEdits batch;
+    /** The parent of the element modified by the previous operation, whose edits are batched if the next one is too. */
+    private JsonPointer lastEditedParent;
 
     InPlaceApplyProcessor(JsonNode target) {
         this(target, CompatibilityFlags.defaults());
@@ -34,24 +45,167 @@ class InPlaceApplyProcessor implements JsonPatchProcessor {
     InPlaceApplyProcessor(JsonNode target, EnumSet<CompatibilityFlags> flags) {
         this.target = target;
         this.flags = flags;
+        this.cursor.reset(target);
+        this.batchArrayEdits = flags.contains(CompatibilityFlags.BATCH_ARRAY_EDITS);
+    }
+
+    /** Returns a processor which modifies the target, and rolls its modifications back on failure if the flags ask so. */
+    static InPlaceApplyProcessor forTarget(JsonNode target, EnumSet<CompatibilityFlags> flags) {
+        if (flags.contains(CompatibilityFlags.ROLL_BACK_ON_FAILURE))
+            return new TransactionalApplyProcessor(target, flags);
+        return new InPlaceApplyProcessor(target, flags);
     }
 
     public JsonNode result() {
+        flush();
         return target;
     }
 
+    /** Records the operations undoing each modification made from now on into the specified builder. */
+    void recordInverse(InversePatchBuilder inverse) {
+        this.inverse = inverse;
+    }
+
+    void setResult(JsonNode target) {
+        this.target = target;
+        cursor.reset(target);
+    }
+
+    /** Returns the containers resolved last, which every modification of the target must invalidate. */
+    ContainerCursor cursor() {
+        return cursor;
+    }
+
+    /** Resolves the node at the specified path, resuming from the containers resolved for the previous operations. */
+    JsonNode resolve(JsonPointer path) throws JsonPointerEvaluationException {
+        JsonNode node = resolveFromCursor(path, path.size());
+        return node != null ? node : path.evaluate(target);
+    }
+
+    /** Resolves the container holding the node at the specified path, which is about to be modified. */
+    JsonNode resolveParentForUpdate(JsonPointer path) throws JsonPointerEvaluationException {
+        JsonNode node = resolveFromCursor(path, path.size() - 1);
+        return node != null ? node : path.getParent().evaluate(target);
+    }
+
+    /**
+     * Resolves the node reached through the specified number of leading tokens of the path, starting from the deepest
+     * cached container on the way, or returns {@code null} if the evaluation of the path fails.
+     */
+    private JsonNode resolveFromCursor(JsonPointer path, int length) {
+        int level = cursor.shared(path);
+        JsonNode current = cursor.get(level);
+        for (; level < length; level++) {
+            JsonPointer.RefToken token = path.get(level);
+            JsonNode child = ContainerCursor.child(current, token);
+            if (child == null)
+                return null;
+            cursor.set(level + 1, token, child);
+            current = child;
+        }
+        return current;
+    }
+
+    /** Returns the value to be stored at the destination of a copy operation. */
+    JsonNode copyValue(JsonNode value) {
+        return value != null ? value.deepCopy() : null;
+    }
+
+    /** Reverts the modifications made so far, if this processor supports it; called when applying a patch fails. */
+    void rollback() {
+        flush();
+    }
+
+    /** Writes the pending edits of the batched array, if any, to the target. */
+    void flush() {
+        if (batch == null)
+            return;
+        List<JsonNode> elements = batch.elements();
+        ArrayNode array = batchArray;
+        batch = null;
+        batchArray = null;
+        batchPath = null;
+        replaceElements(array, elements);
+    }
+
+    /**
+     * Returns the pending edits of the array holding the element at the specified path, or {@code null} if the
+     * operation on it is not batched. Any other pending edits are flushed first.
+     *
+     * @param mayStart Whether the operation may start a new batch, if it modifies the same array as the previous one.
+     */
+    private ArrayEdits batchFor(JsonPointer path, boolean mayStart) throws JsonPointerEvaluationException {
+        if (!batchArrayEdits)
+            return null;
+        JsonPointer parent = path.isRoot() || !path.last().isArrayIndex() ? null : path.getParent();
+        if (batch != null) {
+            if (parent != null && parent.equals(batchPath))
+                return batch;
+            flush();
+        }
+        if (!mayStart || parent == null)
+            return null;
+        if (!parent.equals(lastEditedParent)) {
+            lastEditedParent = parent;
+            return null;
+        }
+        lastEditedParent = null;
+        JsonNode parentNode = resolveParentForUpdate(path);
+        if (!parentNode.isArray())
+            return null;
+        batchPath = parent;
+        batchArray = (ArrayNode) parentNode;
+        batch = new ArrayEdits(batchArray);
+        return batch;
+    }
+
+    // Every modification of the target goes through one of the following methods
+
+    void putField(ObjectNode parent, String field, JsonNode value) {
+        cursor.invalidate(parent);
+        parent.set(field, value);
+    }
+
+    void removeField(ObjectNode parent, String field) {
+        cursor.invalidate(parent);
+        parent.remove(field);
+    }
+
+    void setElement(ArrayNode parent, int index, JsonNode value) {
+        cursor.invalidate(parent);
+        parent.set(index, value);
+    }
+
+    void insertElement(ArrayNode parent, int index, JsonNode value) {
+        cursor.invalidate(parent);
+        parent.insert(index, value);
+    }
+
+    void removeElement(ArrayNode parent, int index) {
+        cursor.invalidate(parent);
+        parent.remove(index);
+    }
+
+    void replaceElements(ArrayNode parent, List<JsonNode> elements) {
+        cursor.invalidate(parent);
+        parent.removeAll();
+        parent.addAll(elements);
+    }
+
     @Override
     public void move(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException {
-        JsonNode valueNode = fromPath.evaluate(target);
-        remove(fromPath);
-        set(toPath, valueNode, Operation.MOVE);
+        flush();
+        JsonNode valueNode = resolve(fromPath);
+        removeNode(fromPath);
+        set(toPath, valueNode, Operation.MOVE, fromPath);
     }
 
     @Override
     public void copy(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException {
-        JsonNode valueNode = fromPath.evaluate(target);
-        JsonNode valueToCopy = valueNode != null ? valueNode.deepCopy() : null;
-        set(toPath, valueToCopy, Operation.COPY);
+        flush();
+        JsonNode valueNode = resolve(fromPath);
+        JsonNode valueToCopy = copyValue(valueNode);
+        set(toPath, valueToCopy, Operation.COPY, null);
     }
 
     private static String show(JsonNode value) {
@@ -67,7 +221,14 @@ class InPlaceApplyProcessor implements JsonPatchProcessor {
 
     @Override
     public void test(JsonPointer path, JsonNode value) throws JsonPointerEvaluationException {
-        JsonNode valueNode = path.evaluate(target);
+        ArrayEdits edits = batchFor(path, false);
+        if (edits != null) {
+            int idx = path.last().getIndex();
+            if (idx >= 0 && idx < edits.size() && edits.get(idx).equals(value))
+                return;
+            flush();    // let the test report the failure
+        }
+        JsonNode valueNode = resolve(path);
         if (!valueNode.equals(value))
             throw new JsonPatchApplicationException(
                     "Expected " + show(value) + " but found " + show(valueNode), Operation.TEST, path);
@@ -75,90 +236,179 @@ class InPlaceApplyProcessor implements JsonPatchProcessor {
 
     @Override
     public void add(JsonPointer path, JsonNode value) throws JsonPointerEvaluationException {
-        set(path, value, Operation.ADD);
+        ArrayEdits edits = batchFor(path, true);
+        if (edits != null) {
+            int idx = path.last().getIndex();
+            if (idx == JsonPointer.LAST_INDEX)
+                idx = edits.size();
+            if (idx <= edits.size()) {
+                edits.insert(idx, value);
+                if (inverse != null)
+                    inverse.remove(idx == path.last().getIndex() ? path : batchPath.append(idx));
+                return;
+            }
+            flush();
+        }
+        set(path, value, Operation.ADD, null);
     }
 
     @Override
     public void replace(JsonPointer path, JsonNode value) throws JsonPointerEvaluationException {
+        ArrayEdits edits = batchFor(path, true);
+        if (edits != null) {
+            int idx = path.last().getIndex();
+            if (idx >= 0 && idx < edits.size()) {
+                JsonNode previous = edits.set(idx, value);
+                if (inverse != null)
+                    inverse.replace(path, previous);
+                return;
+            }
+            flush();
+        }
         if (path.isRoot()) {
-            target = value;
+            JsonNode previous = target;
+            setResult(value);
+            if (inverse != null)
+                inverse.replace(path, previous);
             return;
         }
 
-        JsonNode parentNode = path.getParent().evaluate(target);
+        JsonNode parentNode = resolveParentForUpdate(path);
         JsonPointer.RefToken token = path.last();
+        JsonNode previous;
         if (parentNode.isObject()) {
             if (!flags.contains(CompatibilityFlags.ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE) &&
                     !parentNode.has(token.getField()))
                 throw new JsonPatchApplicationException(
                         "Missing field \"" + token.getField() + "\"", Operation.REPLACE, path.getParent());
-            ((ObjectNode) parentNode).replace(token.getField(), value);
+            previous = parentNode.get(token.getField());
+            putField((ObjectNode) parentNode, token.getField(), value);
         } else if (parentNode.isArray()) {
             if (token.getIndex() >= parentNode.size())
                 throw new JsonPatchApplicationException(
                         "Array index " + token.getIndex() + " out of bounds", Operation.REPLACE, path.getParent());
-            ((ArrayNode) parentNode).set(token.getIndex(), value);
+            previous = parentNode.get(token.getIndex());
+            setElement((ArrayNode) parentNode, token.getIndex(), value);
         } else {
             throw new JsonPatchApplicationException(
                     "Can't reference past scalar value", Operation.REPLACE, path.getParent());
         }
+        if (inverse != null) {
+            if (previous != null)
+                inverse.replace(path, previous);
+            else
+                inverse.remove(path);
+        }
     }
 
     @Override
     public void remove(JsonPointer path) throws JsonPointerEvaluationException {
+        ArrayEdits edits = batchFor(path, true);
+        if (edits != null) {
+            int idx = path.last().getIndex();
+            if (idx >= 0 && idx < edits.size()) {
+                JsonNode removed = edits.remove(idx);
+                if (inverse != null)
+                    inverse.add(path, removed);
+                return;
+            }
+            flush();
+        }
+        JsonNode removed = removeNode(path);
+        if (inverse != null && removed != null)
+            inverse.add(path, removed);
+    }
+
+    /** Removes the node at the specified path, returning it, or {@code null} if there was no such node. */
+    private JsonNode removeNode(JsonPointer path) throws JsonPointerEvaluationException {
         if (path.isRoot())
             throw new JsonPatchApplicationException("Cannot remove document root", Operation.REMOVE, path);
 
-        JsonNode parentNode = path.getParent().evaluate(target);
+        JsonNode parentNode = resolveParentForUpdate(path);
         JsonPointer.RefToken token = path.last();
-        if (parentNode.isObject())
-            ((ObjectNode) parentNode).remove(token.getField());
+        JsonNode removed;
+        if (parentNode.isObject()) {
+            removed = parentNode.get(token.getField());
+            removeField((ObjectNode) parentNode, token.getField());
+        }
         else if (parentNode.isArray()) {
             if (!flags.contains(CompatibilityFlags.REMOVE_NONE_EXISTING_ARRAY_ELEMENT) &&
                     token.getIndex() >= parentNode.size())
                 throw new JsonPatchApplicationException(
                         "Array index " + token.getIndex() + " out of bounds", Operation.REPLACE, path.getParent());
-            ((ArrayNode) parentNode).remove(token.getIndex());
+            removed = token.getIndex() >= 0 ? parentNode.get(token.getIndex()) : null;
+            removeElement((ArrayNode) parentNode, token.getIndex());
         } else {
             throw new JsonPatchApplicationException(
                     "Cannot reference past scalar value", Operation.REPLACE, path.getParent());
         }
+        return removed;
     }
 
-
-
-    private void set(JsonPointer path, JsonNode value, Operation forOp) throws JsonPointerEvaluationException {
-        if (path.isRoot())
-            target = value;
+    /**
+     * Adds the value at the specified path, replacing the root or an existing field.
+     *
+     * @param movedFrom The path the value was removed from by a move operation, or {@code null}.
+     */
+    private void set(JsonPointer path, JsonNode value, Operation forOp, JsonPointer movedFrom) throws JsonPointerEvaluationException {
+        JsonPointer addedAt = path;
+        JsonNode previous;
+        if (path.isRoot()) {
+            previous = target;
+            setResult(value);
+        }
         else {
-            JsonNode parentNode = path.getParent().evaluate(target);
+            JsonNode parentNode = resolveParentForUpdate(path);
             if (!parentNode.isContainerNode())
                 throw new JsonPatchApplicationException("Cannot reference past scalar value", forOp, path.getParent());
-            else if (parentNode.isArray())
-                addToArray(path, value, parentNode);
-            else
+            else if (parentNode.isArray()) {
+                int idx = addToArray(path, value, parentNode);
+                if (inverse != null && idx != path.last().getIndex())
+                    addedAt = path.getParent().append(idx);
+                previous = null;
+            }
+            else {
+                previous = parentNode.get(path.last().getField());
                 addToObject(path, parentNode, value);
+            }
+        }
+
+        if (inverse != null) {
+            // the inverse patch is built backwards. When the moved value displaced another one, that one is restored
+            // first, while the indices are still the ones of the result, then the moved value is added back. The
+            // later operations may modify the moved value in place, so it is added back from a copy
+            if (movedFrom != null && previous != null) {
+                inverse.add(movedFrom, value.deepCopy());
+                inverse.replace(addedAt, previous);
+            } else if (movedFrom != null)
+                inverse.move(addedAt, movedFrom);
+            else if (previous != null)
+                inverse.replace(addedAt, previous);
+            else
+                inverse.remove(addedAt);
         }
     }
 
     private void addToObject(JsonPointer path, JsonNode node, JsonNode value) {
         final ObjectNode target = (ObjectNode) node;
         String key = path.last().getField();
-        target.set(key, value);
+        putField(target, key, value);
     }
 
-    private void addToArray(JsonPointer path, JsonNode value, JsonNode parentNode) {
+    /** Inserts the value in the array, returning the index it was inserted at. */
+    private int addToArray(JsonPointer path, JsonNode value, JsonNode parentNode) {
         final ArrayNode target = (ArrayNode) parentNode;
         int idx = path.last().getIndex();
 
         if (idx == JsonPointer.LAST_INDEX) {
             // see http://tools.ietf.org/html/rfc6902#section-4.1
-            target.add(value);
+            idx = target.size();
         } else {
             if (idx > target.size())
                 throw new JsonPatchApplicationException(
                         "Array index " + idx + " out of bounds", Operation.ADD, path.getParent());
-            target.insert(idx, value);
         }
+        insertElement(target, idx, value);
+        return idx;
     }
 }
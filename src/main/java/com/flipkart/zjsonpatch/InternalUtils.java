@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -55,4 +56,200 @@ class InternalUtils {
         Collections.reverse(toReturn);
         return toReturn;
     }
+
+    /**
+     * Computes a longest common subsequence of {@code a} and {@code b} using Myers' O(ND) greedy algorithm,
+     * where D is the size of the shortest edit script between the two sequences. Time and memory scale with
+     * the edit distance rather than with the product of the sequence sizes.
+     *
+     * <p>Elements are expected to have been interned into int symbols beforehand, so that comparing two
+     * elements is a single int comparison.
+     *
+     * @return an array of {@code a.length} entries, mapping each index of {@code a} to the index of its
+     * counterpart in {@code b}, or {@code -1} if the element is not part of the common subsequence. Mapped
+     * indices are strictly increasing.
+     */
+    static int[] myersCommonSubsequence(final int[] a, final int[] b) {
+        return myersCommonSubsequence(a, b, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #myersCommonSubsequence(int[], int[])}, but gives up as soon as the backtracking trace
+     * would hold more than {@code maxCells} integers.
+     *
+     * @return the mapping described in {@link #myersCommonSubsequence(int[], int[])}, or {@code null} if the
+     * edit distance between the sequences is too large for the given budget.
+     */
+    static int[] myersCommonSubsequence(final int[] a, final int[] b, final long maxCells) {
+        if (a == null || b == null) {
+            throw new NullPointerException("Sequence must not be null for myersCommonSubsequence");
+        }
+
+        final int aSize = a.length;
+        final int bSize = b.length;
+        final int max = aSize + bSize;
+        final int offset = max + 1;
+        final int[] v = new int[2 * max + 3];
+        // trace.get(d) holds v[-d..d] as it stood after the d-th round, needed to backtrack the edit path
+        final List<int[]> trace = new ArrayList<int[]>();
+        long cells = 0;
+
+        for (int d = 0; d <= max; d++) {
+            cells += 2 * d + 1;
+            if (cells > maxCells)
+                return null;
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                    x = v[offset + k + 1];          // step down: insertion from b
+                else
+                    x = v[offset + k - 1] + 1;      // step right: deletion from a
+                int y = x - k;
+                while (x < aSize && y < bSize && a[x] == b[y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= aSize && y >= bSize) {
+                    trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+                    return backtrackMyers(trace, aSize, bSize);
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+        }
+        throw new IllegalStateException("Myers diff failed to reach the end of both sequences");
+    }
+
+    private static int[] backtrackMyers(List<int[]> trace, int aSize, int bSize) {
+        int[] matches = new int[aSize];
+        Arrays.fill(matches, -1);
+
+        int x = aSize;
+        int y = bSize;
+        for (int d = trace.size() - 1; d > 0; d--) {
+            int[] previous = trace.get(d - 1);      // v[-(d-1)..(d-1)], indexed by k + d - 1
+            int k = x - y;
+            int previousK;
+            if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]))
+                previousK = k + 1;
+            else
+                previousK = k - 1;
+            int previousX = previous[previousK + d - 1];
+            int previousY = previousX - previousK;
+
+            // the diagonal (snake) following the single edit of this round consists of matches
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+                matches[x] = y;
+            }
+            x = previousX;
+            y = previousY;
+        }
+        // whatever remains is the initial snake, i.e. the common prefix
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            matches[x] = y;
+        }
+        return matches;
+    }
+
+    /**
+     * Computes a longest common subsequence of {@code a} and {@code b} using Hirschberg's divide-and-conquer
+     * algorithm. Like the classic dynamic programming approach it takes O(n*m) time, but only needs O(n+m)
+     * memory, so it is suitable for arrays whose LCS table would not fit in memory.
+     *
+     * @return the mapping described in {@link #myersCommonSubsequence(int[], int[])}.
+     */
+    static int[] hirschbergCommonSubsequence(final int[] a, final int[] b) {
+        if (a == null || b == null) {
+            throw new NullPointerException("Sequence must not be null for hirschbergCommonSubsequence");
+        }
+
+        int[] matches = new int[a.length];
+        Arrays.fill(matches, -1);
+        hirschberg(a, 0, a.length, b, 0, b.length, matches);
+        return matches;
+    }
+
+    private static void hirschberg(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, int[] matches) {
+        if (aStart >= aEnd || bStart >= bEnd)
+            return;
+
+        if (aEnd - aStart == 1) {
+            int symbol = a[aStart];
+            for (int j = bStart; j < bEnd; j++) {
+                if (symbol == b[j]) {
+                    matches[aStart] = j;
+                    return;
+                }
+            }
+            return;
+        }
+
+        int aMiddle = (aStart + aEnd) >>> 1;
+        int[] forward = lcsLengthsForward(a, aStart, aMiddle, b, bStart, bEnd);
+        int[] backward = lcsLengthsBackward(a, aMiddle, aEnd, b, bStart, bEnd);
+
+        // split b where the LCS of the upper half of a with b's prefix plus the LCS of the lower half with
+        // b's suffix is maximal
+        int bLength = bEnd - bStart;
+        int split = 0;
+        int best = -1;
+        for (int k = 0; k <= bLength; k++) {
+            int length = forward[k] + backward[bLength - k];
+            if (length > best) {
+                best = length;
+                split = k;
+            }
+        }
+
+        hirschberg(a, aStart, aMiddle, b, bStart, bStart + split, matches);
+        hirschberg(a, aMiddle, aEnd, b, bStart + split, bEnd, matches);
+    }
+
+    /**
+     * @return an array whose k-th entry is the LCS length of {@code a[aStart, aEnd)} and {@code b[bStart, bStart + k)}
+     */
+    private static int[] lcsLengthsForward(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd) {
+        int bLength = bEnd - bStart;
+        int[] previous = new int[bLength + 1];
+        int[] current = new int[bLength + 1];
+        for (int i = aStart; i < aEnd; i++) {
+            int symbol = a[i];
+            for (int k = 1; k <= bLength; k++) {
+                if (symbol == b[bStart + k - 1])
+                    current[k] = previous[k - 1] + 1;
+                else
+                    current[k] = Math.max(current[k - 1], previous[k]);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous;
+    }
+
+    /**
+     * @return an array whose k-th entry is the LCS length of {@code a[aStart, aEnd)} and {@code b[bEnd - k, bEnd)}
+     */
+    private static int[] lcsLengthsBackward(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd) {
+        int bLength = bEnd - bStart;
+        int[] previous = new int[bLength + 1];
+        int[] current = new int[bLength + 1];
+        for (int i = aEnd - 1; i >= aStart; i--) {
+            int symbol = a[i];
+            for (int k = 1; k <= bLength; k++) {
+                if (symbol == b[bEnd - k])
+                    current[k] = previous[k - 1] + 1;
+                else
+                    current[k] = Math.max(current[k - 1], previous[k]);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous;
+    }
 }
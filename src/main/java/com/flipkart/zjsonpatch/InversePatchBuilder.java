@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the operations undoing each modification made while applying a patch, and builds the inverse patch from
+ * them. The values displaced by the patch are referenced, not copied.
+ */
+final class InversePatchBuilder {
+    private static final JsonNodeFactory FACTORY = JsonNodeFactory.instance;
+
+    /** The undoing operations, in the order of the modifications they undo. */
+    private final List<ObjectNode> operations = new ArrayList<ObjectNode>();
+
+    void add(JsonPointer path, JsonNode value) {
+        ObjectNode operation = operation(Operation.ADD, path);
+        operation.set(Constants.VALUE, value);
+        operations.add(operation);
+    }
+
+    void remove(JsonPointer path) {
+        operations.add(operation(Operation.REMOVE, path));
+    }
+
+    void replace(JsonPointer path, JsonNode value) {
+        ObjectNode operation = operation(Operation.REPLACE, path);
+        operation.set(Constants.VALUE, value);
+        operations.add(operation);
+    }
+
+    void move(JsonPointer fromPath, JsonPointer toPath) {
+        ObjectNode operation = operation(Operation.MOVE, toPath);
+        operation.put(Constants.FROM, fromPath.toString());
+        operations.add(operation);
+    }
+
+    private static ObjectNode operation(Operation operation, JsonPointer path) {
+        ObjectNode node = FACTORY.objectNode();
+        node.put(Constants.OP, operation.rfcName());
+        node.put(Constants.PATH, path.toString());
+        return node;
+    }
+
+    /** Returns the inverse patch, which undoes the modifications starting with the last one. */
+    ArrayNode build() {
+        ArrayNode patch = FACTORY.arrayNode(operations.size());
+        for (int i = operations.size() - 1; i >= 0; i--) {
+            patch.add(operations.get(i));
+        }
+        return patch;
+    }
+}
@@ -16,13 +16,17 @@
 
 package com.flipkart.zjsonpatch;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import org.apache.commons.collections4.ListUtils;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
 /**
  * User: gopi.vishwakarma
@@ -33,9 +37,24 @@ public final class JsonDiff {
 
     private final List<Diff> diffs = new ArrayList<Diff>();
     private final EnumSet<DiffFlags> flags;
+    private final DiffOptions options;
+    private final StructuralHashCache hashes;
+    // Subtree sizes deciding which children are diffed by separate tasks, null when diffing sequentially
+    private final StructuralHashCache sizes;
 
-    private JsonDiff(EnumSet<DiffFlags> flags) {
+    private JsonDiff(EnumSet<DiffFlags> flags, DiffOptions options, boolean parallel) {
         this.flags = flags.clone();
+        this.options = options;
+        this.hashes = flags.contains(DiffFlags.CACHE_STRUCTURAL_HASHES) ? new StructuralHashCache() : null;
+        this.sizes = !parallel ? null : hashes != null ? hashes : new StructuralHashCache();
+    }
+
+    /** Creates an instance collecting the diffs of some children of the containers diffed by {@code parent}. */
+    private JsonDiff(JsonDiff parent) {
+        this.flags = parent.flags;
+        this.options = parent.options;
+        this.hashes = parent.hashes;
+        this.sizes = parent.sizes;
     }
 
     public static JsonNode asJson(final JsonNode source, final JsonNode target) {
@@ -43,20 +62,73 @@ public final class JsonDiff {
     }
 
     public static JsonNode asJson(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags) {
-        JsonDiff diff = new JsonDiff(flags);
+        return asJson(source, target, flags, DiffOptions.defaults());
+    }
+
+    public static JsonNode asJson(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags, DiffOptions options) {
+        JsonDiff diff = new JsonDiff(flags, options, false);
 
         // generating diffs in the order of their occurrence
         diff.generateDiffs(JsonPointer.ROOT, source, target);
+        diff.introduceMoveAndCopyOperations(source, target);
+        return diff.getJsonNodes();
+    }
 
+    public static void write(JsonNode source, JsonNode target, EnumSet<DiffFlags> flags, JsonGenerator out) throws IOException {
+        write(source, target, flags, DiffOptions.defaults(), out);
+    }
+
+    /**
+     * Computes the same patch as {@link #asJson(JsonNode, JsonNode, EnumSet, DiffOptions)} and writes it to the
+     * specified generator, one operation at a time, without building a tree for the whole patch.
+     *
+     * @param out The generator the patch is written to, as an array. It is neither flushed nor closed.
+     * @throws IOException The generator could not write the patch.
+     * @since 0.4.10
+     */
+    public static void write(JsonNode source, JsonNode target, EnumSet<DiffFlags> flags, DiffOptions options,
+                             JsonGenerator out) throws IOException {
+        JsonDiff diff = new JsonDiff(flags, options, false);
+        diff.generateDiffs(JsonPointer.ROOT, source, target);
+        diff.introduceMoveAndCopyOperations(source, target);
+        diff.write(out);
+    }
+
+    /**
+     * Computes the same patch as {@link #asJson(JsonNode, JsonNode, EnumSet, DiffOptions)}, diffing the children of
+     * large containers concurrently on the specified pool; see {@link DiffOptions#getParallelThreshold()}.
+     * The diffs of the children are put back in document order before moves and copies are introduced, hence the
+     * patch is identical to the one computed sequentially.
+     *
+     * <p>Neither document may be modified until this method returns.
+     *
+     * @since 0.4.10
+     */
+    public static JsonNode asJson(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags, DiffOptions options,
+                                  ForkJoinPool pool) {
+        final JsonDiff diff = new JsonDiff(flags, options, true);
+
+        // Size every container upfront: from then on the cache is only read, and can be shared between the tasks
+        diff.sizes.size(source);
+        diff.sizes.size(target);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                diff.generateDiffs(JsonPointer.ROOT, source, target);
+            }
+        });
+        diff.introduceMoveAndCopyOperations(source, target);
+        return diff.getJsonNodes();
+    }
+
+    private void introduceMoveAndCopyOperations(JsonNode source, JsonNode target) {
         if (!flags.contains(DiffFlags.OMIT_MOVE_OPERATION))
             // Merging remove & add to move operation
-            diff.introduceMoveOperation();
+            introduceMoveOperation();
 
         if (!flags.contains(DiffFlags.OMIT_COPY_OPERATION))
             // Introduce copy operation
-            diff.introduceCopyOperation(source, target);
-
-        return diff.getJsonNodes();
+            introduceCopyOperation(source, target);
     }
 
     private static JsonPointer getMatchingValuePath(Map<JsonNode, JsonPointer> unchangedValues, JsonNode value) {
@@ -120,14 +192,14 @@ public final class JsonDiff {
         return !isSame;
     }
 
-    private static Map<JsonNode, JsonPointer> getUnchangedPart(JsonNode source, JsonNode target) {
+    private Map<JsonNode, JsonPointer> getUnchangedPart(JsonNode source, JsonNode target) {
         Map<JsonNode, JsonPointer> unchangedValues = new HashMap<JsonNode, JsonPointer>();
         computeUnchangedValues(unchangedValues, JsonPointer.ROOT, source, target);
         return unchangedValues;
     }
 
-    private static void computeUnchangedValues(Map<JsonNode, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
-        if (source.equals(target)) {
+    private void computeUnchangedValues(Map<JsonNode, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
+        if (nodesEqual(source, target)) {
             if (!unchangedValues.containsKey(target)) {
                 unchangedValues.put(target, path);
             }
@@ -151,7 +223,11 @@ public final class JsonDiff {
         }
     }
 
-    private static void computeArray(Map<JsonNode, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
+    private void computeArray(Map<JsonNode, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
+        if (getArrayElementKeys(path, source, target) != null)
+            // Elements are matched by key, hence they may be moved around before any copy is applied
+            return;
+
         final int size = Math.min(source.size(), target.size());
 
         for (int i = 0; i < size; i++) {
@@ -160,7 +236,7 @@ public final class JsonDiff {
         }
     }
 
-    private static void computeObject(Map<JsonNode, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
+    private void computeObject(Map<JsonNode, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
         final Iterator<String> firstFields = source.fieldNames();
         while (firstFields.hasNext()) {
             String name = firstFields.next();
@@ -173,102 +249,182 @@ public final class JsonDiff {
 
     /**
      * This method merge 2 diffs ( remove then add, or vice versa ) with same value into one Move operation,
-     * all the core logic resides here only
+     * all the core logic resides here only.
+     *
+     * Each add or remove is paired with the first later diff of the opposite kind carrying the same value, which
+     * is looked up by value in a hash map. Index adjustments of the moved path are summed from Fenwick trees, so
+     * the whole pass takes O(k log k) for k diffs.
      */
     private void introduceMoveOperation() {
-        for (int i = 0; i < diffs.size(); i++) {
+        int size = diffs.size();
+
+        // Array elements matched by key may have been moved already, which the index adjustments can't account for
+        int[] nextMove = new int[size + 1];
+        nextMove[size] = size;
+        for (int i = size - 1; i >= 0; i--) {
+            nextMove[i] = Operation.MOVE == diffs.get(i).getOperation() ? i : nextMove[i + 1];
+        }
+
+        Map<Object, PendingDiffs> pendingByValue = new HashMap<Object, PendingDiffs>();
+        Map<JsonPointer, SiblingDiffs> siblingsByArray = new HashMap<JsonPointer, SiblingDiffs>();
+        SiblingDiffs[] siblingsOf = new SiblingDiffs[size];
+        int[] siblingSlot = new int[size];
+        for (int i = 0; i < size; i++) {
+            Diff diff = diffs.get(i);
+            if (!(Operation.REMOVE == diff.getOperation() || Operation.ADD == diff.getOperation())) {
+                continue;
+            }
+
+            Object value = valueKey(diff.getValue());
+            PendingDiffs pending = pendingByValue.get(value);
+            if (pending == null) {
+                pending = new PendingDiffs();
+                pendingByValue.put(value, pending);
+            }
+            (Operation.ADD == diff.getOperation() ? pending.adds : pending.removes).add(i);
+
+            JsonPointer path = diff.getPath();
+            if (!path.isRoot() && path.last().isArrayIndex()) {
+                JsonPointer array = path.getParent();
+                SiblingDiffs siblings = siblingsByArray.get(array);
+                if (siblings == null) {
+                    siblings = new SiblingDiffs();
+                    siblingsByArray.put(array, siblings);
+                }
+                siblingsOf[i] = siblings;
+                siblingSlot[i] = siblings.add(i, Operation.ADD == diff.getOperation() ? -1 : 1);
+            }
+        }
+        for (SiblingDiffs siblings : siblingsByArray.values()) {
+            siblings.index();
+        }
+
+        boolean[] consumed = new boolean[size];
+        Diff[] moves = new Diff[size];
+        for (int i = 0; i < size; i++) {
             Diff diff1 = diffs.get(i);
 
             // if not remove OR add, move to next diff
-            if (!(Operation.REMOVE == diff1.getOperation() ||
+            if (consumed[i] || !(Operation.REMOVE == diff1.getOperation() ||
                 Operation.ADD == diff1.getOperation())) {
                 continue;
             }
 
-            for (int j = i + 1; j < diffs.size(); j++) {
-                Diff diff2 = diffs.get(j);
-                if (!diff1.getValue().equals(diff2.getValue())) {
-                    continue;
-                }
-
-                Diff moveDiff = null;
-                if (Operation.REMOVE == diff1.getOperation() &&
-                    Operation.ADD == diff2.getOperation()) {
-                    JsonPointer relativePath = computeRelativePath(diff2.getPath(), i + 1, j - 1, diffs);
-                    moveDiff = new Diff(Operation.MOVE, diff1.getPath(), relativePath);
+            PendingDiffs pending = pendingByValue.get(valueKey(diff1.getValue()));
+            Deque<Integer> candidates = Operation.REMOVE == diff1.getOperation() ? pending.adds : pending.removes;
+            while (!candidates.isEmpty() && (candidates.peekFirst() <= i || consumed[candidates.peekFirst()])) {
+                candidates.pollFirst();
+            }
+            if (candidates.isEmpty() || candidates.peekFirst() >= nextMove[i]) {
+                continue;
+            }
 
-                } else if (Operation.ADD == diff1.getOperation() &&
-                    Operation.REMOVE == diff2.getOperation()) {
-                    JsonPointer relativePath = computeRelativePath(diff2.getPath(), i, j - 1, diffs); // diff1's add should also be considered
-                    moveDiff = new Diff(Operation.MOVE, relativePath, diff1.getPath());
-                }
-                if (moveDiff != null) {
-                    diffs.remove(j);
-                    diffs.set(i, moveDiff);
-                    break;
-                }
+            int j = candidates.pollFirst();
+            Diff diff2 = diffs.get(j);
+            if (Operation.REMOVE == diff1.getOperation()) {
+                JsonPointer relativePath = computeRelativePath(diff2.getPath(), i + 1, j - 1, siblingsByArray);
+                moves[i] = new Diff(Operation.MOVE, diff1.getPath(), relativePath);
+            } else {
+                JsonPointer relativePath = computeRelativePath(diff2.getPath(), i, j - 1, siblingsByArray); // diff1's add should also be considered
+                moves[i] = new Diff(Operation.MOVE, relativePath, diff1.getPath());
             }
+            consumed[i] = true;
+            consumed[j] = true;
+            if (siblingsOf[i] != null)
+                siblingsOf[i].remove(siblingSlot[i]);
+            if (siblingsOf[j] != null)
+                siblingsOf[j].remove(siblingSlot[j]);
         }
-    }
 
-    //Note : only to be used for arrays
-    //Finds the longest common Ancestor ending at Array
-    private static JsonPointer computeRelativePath(JsonPointer path, int startIdx, int endIdx, List<Diff> diffs) {
-        List<Integer> counters = new ArrayList<Integer>(path.size());
-        for (int i = 0; i < path.size(); i++) {
-            counters.add(0);
+        List<Diff> merged = new ArrayList<Diff>(size);
+        for (int i = 0; i < size; i++) {
+            if (moves[i] != null)
+                merged.add(moves[i]);
+            else if (!consumed[i])
+                merged.add(diffs.get(i));
         }
+        diffs.clear();
+        diffs.addAll(merged);
+    }
 
-        for (int i = startIdx; i <= endIdx; i++) {
-            Diff diff = diffs.get(i);
-            //Adjust relative path according to #ADD and #Remove
-            if (Operation.ADD == diff.getOperation() || Operation.REMOVE == diff.getOperation()) {
-                updatePath(path, diff, counters);
+    private Object valueKey(JsonNode value) {
+        return hashes != null ? hashes.key(value) : value;
+    }
+
+    /** Adds and removes carrying the same value which haven't been merged yet, in diff order. */
+    private static final class PendingDiffs {
+        private final Deque<Integer> adds = new ArrayDeque<Integer>();
+        private final Deque<Integer> removes = new ArrayDeque<Integer>();
+    }
+
+    /**
+     * Adds and removes of elements of the same array, in diff order. Each one shifts the index of the following
+     * elements by one, which is tracked in a Fenwick tree: removes count +1, adds count -1, merged diffs count 0.
+     */
+    private static final class SiblingDiffs {
+        private int[] diffIndices = new int[4];
+        private int[] shifts = new int[4];
+        private int size;
+        private FenwickTree tree;
+
+        private int add(int diffIndex, int shift) {
+            if (size == diffIndices.length) {
+                diffIndices = Arrays.copyOf(diffIndices, size * 2);
+                shifts = Arrays.copyOf(shifts, size * 2);
             }
+            diffIndices[size] = diffIndex;
+            shifts[size] = shift;
+            return size++;
         }
-        return updatePathWithCounters(counters, path);
-    }
 
-    private static JsonPointer updatePathWithCounters(List<Integer> counters, JsonPointer path) {
-        List<JsonPointer.RefToken> tokens = path.decompose();
-        for (int i = 0; i < counters.size(); i++) {
-            int value = counters.get(i);
-            if (value != 0) {
-                int currValue = tokens.get(i).getIndex();
-                tokens.set(i, new JsonPointer.RefToken(Integer.toString(currValue + value)));
+        private void index() {
+            tree = new FenwickTree(size);
+            for (int slot = 0; slot < size; slot++) {
+                tree.add(slot, shifts[slot]);
             }
         }
-        return new JsonPointer(tokens);
-    }
 
-    private static void updatePath(JsonPointer path, Diff pseudo, List<Integer> counters) {
-        //find longest common prefix of both the paths
+        private void remove(int slot) {
+            tree.add(slot, -shifts[slot]);
+            shifts[slot] = 0;
+        }
 
-        if (pseudo.getPath().size() <= path.size()) {
-            int idx = -1;
-            for (int i = 0; i < pseudo.getPath().size() - 1; i++) {
-                if (pseudo.getPath().get(i).equals(path.get(i))) {
-                    idx = i;
-                } else {
-                    break;
-                }
-            }
-            if (idx == pseudo.getPath().size() - 2) {
-                if (pseudo.getPath().get(pseudo.getPath().size() - 1).isArrayIndex()) {
-                    updateCounters(pseudo, pseudo.getPath().size() - 1, counters);
-                }
+        /** Returns the total shift of the diffs whose index lies in {@code [fromDiff, toDiff]}. */
+        private int shift(int fromDiff, int toDiff) {
+            return tree.sum(lowerBound(fromDiff), lowerBound(toDiff + 1));
+        }
+
+        private int lowerBound(int diffIndex) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (diffIndices[middle] < diffIndex)
+                    low = middle + 1;
+                else
+                    high = middle;
             }
+            return low;
         }
     }
 
-    private static void updateCounters(Diff pseudo, int idx, List<Integer> counters) {
-        if (Operation.ADD == pseudo.getOperation()) {
-            counters.set(idx, counters.get(idx) - 1);
-        } else {
-            if (Operation.REMOVE == pseudo.getOperation()) {
-                counters.set(idx, counters.get(idx) + 1);
+    //Note : only to be used for arrays
+    //Adjusts every array index along the path by the adds and removes in that array between startIdx and endIdx
+    private static JsonPointer computeRelativePath(JsonPointer path, int startIdx, int endIdx, Map<JsonPointer, SiblingDiffs> siblingsByArray) {
+        List<JsonPointer.RefToken> tokens = path.decompose();
+        JsonPointer array = path;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            array = array.getParent();
+            SiblingDiffs siblings = siblingsByArray.get(array);
+            if (siblings == null)
+                continue;
+            int value = siblings.shift(startIdx, endIdx);
+            if (value != 0) {
+                int currValue = tokens.get(i).getIndex();
+                tokens.set(i, JsonPointer.RefToken.ofIndex(currValue + value));
             }
         }
+        return new JsonPointer(tokens);
     }
 
     private ArrayNode getJsonNodes() {
@@ -302,6 +458,7 @@ public final class JsonDiff {
                 if (flags.contains(DiffFlags.ADD_ORIGINAL_VALUE_ON_REPLACE)) {
                     jsonNode.set(Constants.FROM_VALUE, diff.getSrcValue());
                 }
+                // fall through, the path and value are set like for an add
             case ADD:
             case TEST:
                 jsonNode.put(Constants.PATH, diff.getPath().toString());
@@ -316,8 +473,23 @@ public final class JsonDiff {
         return jsonNode;
     }
 
+    private void write(JsonGenerator out) throws IOException {
+        JsonNodeFactory FACTORY = JsonNodeFactory.instance;
+        out.writeStartArray();
+        for (Diff diff : diffs) {
+            // each operation is built on its own, referencing the values of the diff rather than copying them, and
+            // written through a shared mapper independent of the codec of the generator, which may have none
+            PatchReader.MAPPER.writeTree(out, getJsonNode(FACTORY, diff, flags));
+        }
+        out.writeEndArray();
+    }
+
+    private boolean nodesEqual(JsonNode source, JsonNode target) {
+        return hashes != null ? hashes.equal(source, target) : source.equals(target);
+    }
+
     private void generateDiffs(JsonPointer path, JsonNode source, JsonNode target) {
-        if (!source.equals(target)) {
+        if (!nodesEqual(source, target)) {
             final NodeType sourceType = NodeType.getNodeType(source);
             final NodeType targetType = NodeType.getNodeType(target);
 
@@ -336,62 +508,332 @@ public final class JsonDiff {
         }
     }
 
+    private void generateDiffs(Children children, JsonPointer path, JsonNode source, JsonNode target) {
+        if (children != null)
+            children.diff(path, source, target);
+        else
+            generateDiffs(path, source, target);
+    }
+
+    /**
+     * Returns a collector diffing the children of the specified containers on separate tasks, or {@code null} if
+     * diffing sequentially or if the containers are too small to be worth it.
+     */
+    private Children children(JsonNode source, JsonNode target) {
+        if (sizes == null || sizes.size(source) + sizes.size(target) <= options.getParallelThreshold())
+            return null;
+        return new Children();
+    }
+
+    /**
+     * Diffs the children of two containers on separate tasks, batching consecutive children into tasks of about
+     * {@link DiffOptions#getParallelThreshold()} nodes. The diffs of every child are spliced back by {@link #join()}
+     * at the position of {@link #diffs} where the child was reached, i.e. in document order.
+     */
+    private final class Children {
+        private final List<ChildrenTask> tasks = new ArrayList<ChildrenTask>();
+        private ChildrenTask pending;
+
+        private void diff(JsonPointer path, JsonNode source, JsonNode target) {
+            if (pending == null)
+                pending = new ChildrenTask();
+            pending.children.add(new Child(diffs.size(), path, source, target));
+            pending.nodes += sizes.size(source) + sizes.size(target);
+            if (pending.nodes >= options.getParallelThreshold()) {
+                pending.fork();
+                tasks.add(pending);
+                pending = null;
+            }
+        }
+
+        private void join() {
+            if (pending != null) {
+                // The remaining children are diffed by the current thread
+                pending.invoke();
+                tasks.add(pending);
+            }
+            if (tasks.isEmpty())
+                return;
+
+            int start = tasks.get(0).children.get(0).position;
+            List<Diff> own = diffs.subList(start, diffs.size());
+            List<Diff> tail = new ArrayList<Diff>(own);
+            own.clear();
+            int next = start;
+            for (ChildrenTask task : tasks) {
+                task.join();
+                int from = 0;
+                for (Child child : task.children) {
+                    diffs.addAll(tail.subList(next - start, child.position - start));
+                    next = child.position;
+                    diffs.addAll(task.diff.diffs.subList(from, child.end));
+                    from = child.end;
+                }
+            }
+            diffs.addAll(tail.subList(next - start, tail.size()));
+        }
+    }
+
+    private static final class Child {
+        private final int position;
+        private final JsonPointer path;
+        private final JsonNode source;
+        private final JsonNode target;
+        private int end;                // end of the diffs of this child in the diffs of its task
+
+        private Child(int position, JsonPointer path, JsonNode source, JsonNode target) {
+            this.position = position;
+            this.path = path;
+            this.source = source;
+            this.target = target;
+        }
+    }
+
+    private final class ChildrenTask extends RecursiveAction {
+        private final JsonDiff diff = new JsonDiff(JsonDiff.this);
+        private final List<Child> children = new ArrayList<Child>();
+        private int nodes;
+
+        @Override
+        protected void compute() {
+            for (Child child : children) {
+                diff.generateDiffs(child.path, child.source, child.target);
+                child.end = diff.diffs.size();
+            }
+        }
+    }
+
     private void compareArray(JsonPointer path, JsonNode source, JsonNode target) {
-        List<JsonNode> lcs = getLCS(source, target);
+        Object[][] keys = getArrayElementKeys(path, source, target);
+        if (keys != null) {
+            compareArrayByKey(path, source, target, keys[0], keys[1]);
+            return;
+        }
+
+        int[] lcs = getLCS(source, target);
+        Children children = children(source, target);
         int srcIdx = 0;
         int targetIdx = 0;
-        int lcsIdx = 0;
         int srcSize = source.size();
         int targetSize = target.size();
-        int lcsSize = lcs.size();
 
         int pos = 0;
-        while (lcsIdx < lcsSize) {
-            JsonNode lcsNode = lcs.get(lcsIdx);
-            JsonNode srcNode = source.get(srcIdx);
-            JsonNode targetNode = target.get(targetIdx);
+        for (int lcsSrcIdx = 0; lcsSrcIdx < srcSize; lcsSrcIdx++) {
+            int lcsTargetIdx = lcs[lcsSrcIdx];
+            if (lcsTargetIdx < 0)
+                continue;
 
-            if (lcsNode.equals(srcNode) && lcsNode.equals(targetNode)) { // Both are same as lcs node, nothing to do here
+            // Elements between the previous and the current lcs node: both are unequal to lcs node
+            while (srcIdx < lcsSrcIdx && targetIdx < lcsTargetIdx) {
+                JsonPointer currPath = path.append(pos);
+                generateDiffs(children, currPath, source.get(srcIdx), target.get(targetIdx));
                 srcIdx++;
                 targetIdx++;
-                lcsIdx++;
                 pos++;
-            } else {
-                if (lcsNode.equals(srcNode)) { // src node is same as lcs, but not targetNode
-                    //addition
-                    JsonPointer currPath = path.append(pos);
-                    diffs.add(Diff.generateDiff(Operation.ADD, currPath, targetNode));
-                    pos++;
-                    targetIdx++;
-                } else if (lcsNode.equals(targetNode)) { //targetNode node is same as lcs, but not src
-                    //removal,
-                    JsonPointer currPath = path.append(pos);
-                    if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS))
-                        diffs.add(new Diff(Operation.TEST, currPath, srcNode));
-                    diffs.add(Diff.generateDiff(Operation.REMOVE, currPath, srcNode));
-                    srcIdx++;
-                } else {
-                    JsonPointer currPath = path.append(pos);
-                    //both are unequal to lcs node
-                    generateDiffs(currPath, srcNode, targetNode);
-                    srcIdx++;
-                    targetIdx++;
-                    pos++;
-                }
             }
+            while (targetIdx < lcsTargetIdx) { // src node is same as lcs, but not targetNode
+                //addition
+                JsonPointer currPath = path.append(pos);
+                diffs.add(Diff.generateDiff(Operation.ADD, currPath, target.get(targetIdx)));
+                pos++;
+                targetIdx++;
+            }
+            while (srcIdx < lcsSrcIdx) { //targetNode node is same as lcs, but not src
+                //removal,
+                JsonPointer currPath = path.append(pos);
+                JsonNode srcNode = source.get(srcIdx);
+                if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS))
+                    diffs.add(new Diff(Operation.TEST, currPath, srcNode));
+                diffs.add(Diff.generateDiff(Operation.REMOVE, currPath, srcNode));
+                srcIdx++;
+            }
+
+            // Both are same as lcs node, nothing to do here
+            srcIdx++;
+            targetIdx++;
+            pos++;
         }
 
         while ((srcIdx < srcSize) && (targetIdx < targetSize)) {
             JsonNode srcNode = source.get(srcIdx);
             JsonNode targetNode = target.get(targetIdx);
             JsonPointer currPath = path.append(pos);
-            generateDiffs(currPath, srcNode, targetNode);
+            generateDiffs(children, currPath, srcNode, targetNode);
             srcIdx++;
             targetIdx++;
             pos++;
         }
         pos = addRemaining(path, target, pos, targetIdx, targetSize);
         removeRemaining(path, pos, srcIdx, srcSize, source);
+        if (children != null)
+            children.join();
+    }
+
+    /**
+     * Returns the keys of the elements of both arrays, or {@code null} if they can't be matched by key:
+     * {@link DiffFlags#MATCH_ARRAY_ELEMENTS_BY_KEY} is not set, no key is configured for this path,
+     * or some element has no key or shares it with another element of the same array.
+     */
+    private Object[][] getArrayElementKeys(JsonPointer path, JsonNode source, JsonNode target) {
+        if (!flags.contains(DiffFlags.MATCH_ARRAY_ELEMENTS_BY_KEY))
+            return null;
+        Function<? super JsonNode, ?> keyExtractor = options.getArrayElementKeyExtractor(path);
+        if (keyExtractor == null)
+            return null;
+
+        Object[] sourceKeys = getUniqueKeys(source, keyExtractor);
+        if (sourceKeys == null)
+            return null;
+        Object[] targetKeys = getUniqueKeys(target, keyExtractor);
+        if (targetKeys == null)
+            return null;
+        return new Object[][] {sourceKeys, targetKeys};
+    }
+
+    private static Object[] getUniqueKeys(JsonNode array, Function<? super JsonNode, ?> keyExtractor) {
+        Object[] keys = new Object[array.size()];
+        Set<Object> seen = new HashSet<Object>();
+        for (int i = 0; i < keys.length; i++) {
+            Object key = keyExtractor.apply(array.get(i));
+            if (key == null || (key instanceof JsonNode && ((JsonNode) key).isNull()) || !seen.add(key))
+                return null;
+            keys[i] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Diffs two arrays whose elements are identified by key: elements whose key disappeared are removed, new
+     * ones are added, the rest is paired by key and compared with {@link #generateDiffs}. Reordered elements
+     * are moved, keeping in place a longest subsequence of elements whose relative order is unchanged.
+     *
+     * <p>Elements are put in target order one by one, each new or out of order element right after its predecessor
+     * in target. Such an element thus ends up chained, in target order, after the nearest preceding element kept in
+     * place, so the cells of the array can be laid out upfront: the cell of every remaining element, followed by the
+     * cells of the elements chained after it. The index of an element is the number of occupied cells before its
+     * own, summed from a Fenwick tree.
+     */
+    private void compareArrayByKey(JsonPointer path, JsonNode source, JsonNode target, Object[] sourceKeys, Object[] targetKeys) {
+        Map<Object, Integer> targetIndices = new HashMap<Object, Integer>();
+        for (int i = 0; i < targetKeys.length; i++) {
+            targetIndices.put(targetKeys[i], i);
+        }
+
+        // Remove elements which no longer exist; the remaining ones are tracked through their index in target
+        int[] sourceIndices = new int[targetKeys.length];
+        int[] slots = new int[targetKeys.length];     // index of the remaining elements once the others are removed
+        Arrays.fill(sourceIndices, -1);
+        List<Integer> remaining = new ArrayList<Integer>(sourceKeys.length);
+        for (int srcIdx = 0; srcIdx < sourceKeys.length; srcIdx++) {
+            Integer targetIdx = targetIndices.get(sourceKeys[srcIdx]);
+            if (targetIdx == null) {
+                JsonPointer currPath = path.append(remaining.size());
+                if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS))
+                    diffs.add(new Diff(Operation.TEST, currPath, source.get(srcIdx)));
+                diffs.add(Diff.generateDiff(Operation.REMOVE, currPath, source.get(srcIdx)));
+            } else {
+                sourceIndices[targetIdx] = srcIdx;
+                slots[targetIdx] = remaining.size();
+                remaining.add(targetIdx);
+            }
+        }
+
+        boolean[] inOrder = longestIncreasingSubsequence(remaining, targetKeys.length);
+
+        // anchors[t]: slot of the element in place which the element is chained after, or -1 for the head of the array
+        int[] anchors = new int[targetKeys.length];
+        int[] chained = new int[remaining.size() + 1];    // elements chained after each anchor, shifted by one
+        for (int targetIdx = 0; targetIdx < targetKeys.length; targetIdx++) {
+            if (sourceIndices[targetIdx] >= 0 && inOrder[targetIdx]) {
+                anchors[targetIdx] = slots[targetIdx];
+            } else {
+                anchors[targetIdx] = targetIdx == 0 ? -1 : anchors[targetIdx - 1];
+                chained[anchors[targetIdx] + 1]++;
+            }
+        }
+        int[] slotCells = new int[remaining.size()];
+        int[] nextCell = new int[remaining.size() + 1];   // next free cell after each anchor, shifted by one
+        int cellCount = chained[0];
+        for (int slot = 0; slot < slotCells.length; slot++) {
+            slotCells[slot] = cellCount++;
+            nextCell[slot + 1] = cellCount;
+            cellCount += chained[slot + 1];
+        }
+        FenwickTree present = new FenwickTree(cellCount);
+        for (int slotCell : slotCells) {
+            present.add(slotCell, 1);
+        }
+
+        Children children = children(source, target);
+        for (int targetIdx = 0; targetIdx < targetKeys.length; targetIdx++) {
+            JsonNode targetNode = target.get(targetIdx);
+            int srcIdx = sourceIndices[targetIdx];
+            if (srcIdx < 0) {
+                int cell = nextCell[anchors[targetIdx] + 1]++;
+                int insertAt = present.prefixSum(cell);
+                present.add(cell, 1);
+                diffs.add(Diff.generateDiff(Operation.ADD, path.append(insertAt), targetNode));
+                continue;
+            }
+
+            JsonNode srcNode = source.get(srcIdx);
+            int slotCell = slotCells[slots[targetIdx]];
+            int currIdx = -1;
+            if (!inOrder[targetIdx]) {
+                currIdx = present.prefixSum(slotCell);
+                present.add(slotCell, -1);
+                int cell = nextCell[anchors[targetIdx] + 1]++;
+                int toIdx = present.prefixSum(cell);
+                present.add(cell, 1);
+                if (currIdx != toIdx) {
+                    JsonPointer fromPath = path.append(currIdx);
+                    if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS))
+                        diffs.add(new Diff(Operation.TEST, fromPath, srcNode));
+                    diffs.add(new Diff(Operation.MOVE, fromPath, path.append(toIdx)));
+                    currIdx = toIdx;
+                }
+            }
+            if (!nodesEqual(srcNode, targetNode)) {
+                if (currIdx < 0)
+                    currIdx = present.prefixSum(slotCell);
+                generateDiffs(children, path.append(currIdx), srcNode, targetNode);
+            }
+        }
+        if (children != null)
+            children.join();
+    }
+
+    /**
+     * @return a mask, indexed by value, of the elements of a longest strictly increasing subsequence of
+     * {@code values}, each of which lies in {@code [0, range)}
+     */
+    private static boolean[] longestIncreasingSubsequence(List<Integer> values, int range) {
+        int size = values.size();
+        int[] tails = new int[size];            // tails[l]: index of the smallest tail of an increasing run of length l + 1
+        int[] predecessors = new int[size];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            int value = values.get(i);
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values.get(tails[middle]) < value)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            predecessors[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length)
+                length++;
+        }
+
+        boolean[] mask = new boolean[range];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = predecessors[i]) {
+            mask[values.get(i)] = true;
+        }
+        return mask;
     }
 
     private void removeRemaining(JsonPointer path, int pos, int srcIdx, int srcSize, JsonNode source) {
@@ -416,6 +858,7 @@ public final class JsonDiff {
     }
 
     private void compareObjects(JsonPointer path, JsonNode source, JsonNode target) {
+        Children children = children(source, target);
         Iterator<String> keysFromSrc = source.fieldNames();
         while (keysFromSrc.hasNext()) {
             String key = keysFromSrc.next();
@@ -428,7 +871,7 @@ public final class JsonDiff {
                 continue;
             }
             JsonPointer currPath = path.append(key);
-            generateDiffs(currPath, source.get(key), target.get(key));
+            generateDiffs(children, currPath, source.get(key), target.get(key));
         }
         Iterator<String> keysFromTarget = target.fieldNames();
         while (keysFromTarget.hasNext()) {
@@ -439,9 +882,63 @@ public final class JsonDiff {
                 diffs.add(Diff.generateDiff(Operation.ADD, currPath, target.get(key)));
             }
         }
+        if (children != null)
+            children.join();
     }
 
-    private static List<JsonNode> getLCS(final JsonNode first, final JsonNode second) {
-        return ListUtils.longestCommonSubsequence(InternalUtils.toList((ArrayNode) first), InternalUtils.toList((ArrayNode) second));
+    /**
+     * Interns every element of the array into a dense int symbol, equal elements sharing the same symbol.
+     */
+    private int[] toSymbols(ArrayNode input, Map<Object, Integer> symbols) {
+        int[] toReturn = new int[input.size()];
+        for (int i = 0; i < toReturn.length; i++) {
+            JsonNode node = input.get(i);
+            Object key = hashes != null ? hashes.key(node) : node;
+            Integer symbol = symbols.get(key);
+            if (symbol == null) {
+                symbol = symbols.size();
+                symbols.put(key, symbol);
+            }
+            toReturn[i] = symbol;
+        }
+        return toReturn;
+    }
+
+    private int[] getLCS(final JsonNode first, final JsonNode second) {
+        // Only needed while matching this pair of arrays, so that the matcher compares ints rather than trees
+        Map<Object, Integer> symbols = new HashMap<Object, Integer>();
+        int[] firstSymbols = toSymbols((ArrayNode) first, symbols);
+        int[] secondSymbols = toSymbols((ArrayNode) second, symbols);
+        int firstSize = firstSymbols.length;
+        int secondSize = secondSymbols.length;
+
+        // Strip the common head and tail, so that only the changed window goes through the matcher
+        int prefix = 0;
+        while (prefix < firstSize && prefix < secondSize && firstSymbols[prefix] == secondSymbols[prefix])
+            prefix++;
+        int suffix = 0;
+        while (suffix < firstSize - prefix && suffix < secondSize - prefix &&
+                firstSymbols[firstSize - 1 - suffix] == secondSymbols[secondSize - 1 - suffix])
+            suffix++;
+
+        int[] lcs = new int[firstSize];
+        for (int i = 0; i < prefix; i++)
+            lcs[i] = i;
+        for (int i = 0; i < suffix; i++)
+            lcs[firstSize - 1 - i] = secondSize - 1 - i;
+
+        int[] firstWindow = Arrays.copyOfRange(firstSymbols, prefix, firstSize - suffix);
+        int[] secondWindow = Arrays.copyOfRange(secondSymbols, prefix, secondSize - suffix);
+        int[] windowLcs = null;
+        if (firstWindow.length > 0 && secondWindow.length > 0) {
+            windowLcs = InternalUtils.myersCommonSubsequence(firstWindow, secondWindow, options.getLinearSpaceThreshold());
+            if (windowLcs == null)
+                // Too many differences to keep the edit trace in memory, fall back to linear space
+                windowLcs = InternalUtils.hirschbergCommonSubsequence(firstWindow, secondWindow);
+        }
+
+        for (int i = 0; i < firstWindow.length; i++)
+            lcs[prefix + i] = windowLcs == null || windowLcs[i] < 0 ? -1 : windowLcs[i] + prefix;
+        return lcs;
     }
 }
@@ -16,11 +16,17 @@
 
 package com.flipkart.zjsonpatch;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.NullNode;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * User: gopi.vishwakarma
@@ -46,76 +52,129 @@ public final class JsonPatch {
             return child;
     }
 
-    private static void process(JsonNode patch, JsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags)
+    private static JsonPointer parsePath(JsonNode jsonNode, String attr, JsonPointerCache pointers) {
+        String path = getPatchAttr(jsonNode, attr).textValue();
+        return pointers != null ? pointers.get(path) : JsonPointer.parse(path);
+    }
+
+    private static JsonNode getValue(JsonNode jsonNode, EnumSet<CompatibilityFlags> flags) {
+        if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
+            return getPatchAttr(jsonNode, Constants.VALUE);
+        else
+            return getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
+    }
+
+    private static PatchOperation parseOperation(JsonNode jsonNode, EnumSet<CompatibilityFlags> flags,
+                                                 JsonPointerCache pointers, boolean copyValue)
             throws InvalidJsonPatchException {
 
+        if (!jsonNode.isObject()) throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an object)");
+        Operation operation = Operation.fromRfcName(getPatchAttr(jsonNode, Constants.OP).textValue());
+        JsonPointer path = parsePath(jsonNode, Constants.PATH, pointers);
+
+        switch (operation) {
+            case ADD:
+            case REPLACE:
+            case TEST: {
+                JsonNode value = getValue(jsonNode, flags);
+                return new PatchOperation(operation, path, null, copyValue ? value.deepCopy() : value);
+            }
+
+            case MOVE:
+            case COPY:
+                return new PatchOperation(operation, path, parsePath(jsonNode, Constants.FROM, pointers), null);
+
+            default:
+                return new PatchOperation(operation, path, null, null);
+        }
+    }
+
+    private static void process(JsonNode patch, JsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags,
+                                JsonPointerCache pointers, boolean copyValues) throws InvalidJsonPatchException {
+
         if (!patch.isArray())
             throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an array)");
         Iterator<JsonNode> operations = patch.iterator();
         while (operations.hasNext()) {
-            JsonNode jsonNode = operations.next();
-            if (!jsonNode.isObject()) throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an object)");
-            Operation operation = Operation.fromRfcName(getPatchAttr(jsonNode, Constants.OP).textValue());
-            JsonPointer path = JsonPointer.parse(getPatchAttr(jsonNode, Constants.PATH).textValue());
-
-            try {
-                switch (operation) {
-                    case REMOVE: {
-                        processor.remove(path);
-                        break;
-                    }
-
-                    case ADD: {
-                        JsonNode value;
-                        if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
-                            value = getPatchAttr(jsonNode, Constants.VALUE);
-                        else
-                            value = getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
-                        processor.add(path, value.deepCopy());
-                        break;
-                    }
-
-                    case REPLACE: {
-                        JsonNode value;
-                        if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
-                            value = getPatchAttr(jsonNode, Constants.VALUE);
-                        else
-                            value = getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
-                        processor.replace(path, value.deepCopy());
-                        break;
-                    }
-
-                    case MOVE: {
-                        JsonPointer fromPath = JsonPointer.parse(getPatchAttr(jsonNode, Constants.FROM).textValue());
-                        processor.move(fromPath, path);
-                        break;
-                    }
-
-                    case COPY: {
-                        JsonPointer fromPath = JsonPointer.parse(getPatchAttr(jsonNode, Constants.FROM).textValue());
-                        processor.copy(fromPath, path);
-                        break;
-                    }
-
-                    case TEST: {
-                        JsonNode value;
-                        if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
-                            value = getPatchAttr(jsonNode, Constants.VALUE);
-                        else
-                            value = getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
-                        processor.test(path, value.deepCopy());
-                        break;
-                    }
-                }
-            }
-            catch (JsonPointerEvaluationException e) {
-                throw new JsonPatchApplicationException(e.getMessage(), operation, e.getPath());
-            }
+            // each operation is applied before the next one is parsed, like the patch was streamed
+            parseOperation(operations.next(), flags, pointers, false).applyTo(processor, copyValues);
+        }
+    }
+
+    /**
+     * Parses and validates a patch once, so that it can be applied to many documents without parsing it again.
+     *
+     * @param patch The JSON patch to compile. It is not referenced by the result, and can be modified afterwards.
+     * @param flags The flags used when parsing and applying the patch.
+     * @return An immutable, thread-safe {@link CompiledPatch}.
+     * @throws InvalidJsonPatchException The patch is invalid.
+     * @since 0.4.10
+     */
+    public static CompiledPatch compile(JsonNode patch, EnumSet<CompatibilityFlags> flags) throws InvalidJsonPatchException {
+        if (!patch.isArray())
+            throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an array)");
+        PatchOperation[] operations = new PatchOperation[patch.size()];
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = parseOperation(patch.get(i), flags, null, true);
+        }
+        return new CompiledPatch(operations, flags);
+    }
+
+    public static CompiledPatch compile(JsonNode patch) throws InvalidJsonPatchException {
+        return compile(patch, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Reads and compiles a patch from a stream of JSON tokens, without building a tree for the whole patch.
+     *
+     * @param parser The parser positioned on, or right before, the opening bracket of the patch. It is left on the
+     *               closing bracket, and is not closed.
+     * @param flags The flags used when parsing and applying the patch.
+     * @return An immutable, thread-safe {@link CompiledPatch}.
+     * @throws InvalidJsonPatchException The patch is invalid; the message names the index of the offending operation.
+     * @throws IOException The parser could not read its input.
+     * @since 0.4.10
+     */
+    public static CompiledPatch compile(JsonParser parser, EnumSet<CompatibilityFlags> flags)
+            throws IOException, InvalidJsonPatchException {
+        List<PatchOperation> operations = new PatchReader(parser, flags).read();
+        return new CompiledPatch(operations.toArray(new PatchOperation[0]), flags);
+    }
+
+    /**
+     * Reads and compiles a patch from a stream of JSON bytes, which is closed afterwards.
+     *
+     * @see #compile(JsonParser, EnumSet)
+     * @since 0.4.10
+     */
+    public static CompiledPatch compile(InputStream patch, EnumSet<CompatibilityFlags> flags)
+            throws IOException, InvalidJsonPatchException {
+        JsonParser parser = PatchReader.MAPPER.getFactory().createParser(patch);
+        try {
+            return compile(parser, flags);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads and compiles a patch from JSON bytes.
+     *
+     * @see #compile(JsonParser, EnumSet)
+     * @since 0.4.10
+     */
+    public static CompiledPatch compile(byte[] patch, EnumSet<CompatibilityFlags> flags)
+            throws IOException, InvalidJsonPatchException {
+        JsonParser parser = PatchReader.MAPPER.getFactory().createParser(patch);
+        try {
+            return compile(parser, flags);
+        } finally {
+            parser.close();
         }
     }
 
     public static void validate(JsonNode patch, EnumSet<CompatibilityFlags> flags) throws InvalidJsonPatchException {
-        process(patch, NoopProcessor.INSTANCE, flags);
+        process(patch, NoopProcessor.INSTANCE, flags, null, false);
     }
 
     public static void validate(JsonNode patch) throws InvalidJsonPatchException {
@@ -123,11 +182,43 @@ public final class JsonPatch {
     }
 
     public static JsonNode apply(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags) throws JsonPatchApplicationException {
-        CopyingApplyProcessor processor = new CopyingApplyProcessor(source, flags);
-        process(patch, processor, flags);
+        return apply(patch, source, flags, null);
+    }
+
+    /**
+     * Applies a patch to a copy of the source document, looking up its paths in a shared pointer cache.
+     *
+     * @param pointers The cache of parsed paths, or {@code null} to parse every path.
+     * @since 0.4.10
+     */
+    public static JsonNode apply(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags,
+                                 JsonPointerCache pointers) throws JsonPatchApplicationException {
+        InPlaceApplyProcessor processor = CopyingApplyProcessor.forSource(source, flags);
+        process(patch, processor, flags, pointers,
+                !flags.contains(CompatibilityFlags.ATTACH_PATCH_VALUES_WITHOUT_COPY));
         return processor.result();
     }
 
+    /**
+     * Applies a patch to a copy of the source document, and records the inverse patch along the way.
+     *
+     * @return The patched document, and the patch turning it back into the source.
+     * @since 0.4.10
+     */
+    public static AppliedPatch applyWithInverse(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags)
+            throws JsonPatchApplicationException {
+        InPlaceApplyProcessor processor = CopyingApplyProcessor.forSource(source, flags);
+        InversePatchBuilder inverse = new InversePatchBuilder();
+        processor.recordInverse(inverse);
+        process(patch, processor, flags, null,
+                !flags.contains(CompatibilityFlags.ATTACH_PATCH_VALUES_WITHOUT_COPY));
+        return new AppliedPatch(processor.result(), inverse.build());
+    }
+
+    public static AppliedPatch applyWithInverse(JsonNode patch, JsonNode source) throws JsonPatchApplicationException {
+        return applyWithInverse(patch, source, CompatibilityFlags.defaults());
+    }
+
     public static JsonNode apply(JsonNode patch, JsonNode source) throws JsonPatchApplicationException {
         return apply(patch, source, CompatibilityFlags.defaults());
     }
@@ -137,7 +228,80 @@ public final class JsonPatch {
     }
 
     public static void applyInPlace(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags) {
-        InPlaceApplyProcessor processor = new InPlaceApplyProcessor(source, flags);
-        process(patch, processor, flags);
+        applyInPlace(patch, source, flags, null);
+    }
+
+    /**
+     * Applies a patch to the source document in place, looking up its paths in a shared pointer cache.
+     *
+     * @param pointers The cache of parsed paths, or {@code null} to parse every path.
+     * @since 0.4.10
+     */
+    public static void applyInPlace(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags,
+                                    JsonPointerCache pointers) {
+        applyInPlace(patch, InPlaceApplyProcessor.forTarget(source, flags), flags, pointers);
+    }
+
+    /**
+     * Applies a patch to the source document in place, and records the inverse patch along the way.
+     *
+     * @return The patched document, which is the source unless the patch replaced the root, and the patch turning it
+     * back into the original source.
+     * @since 0.4.10
+     */
+    public static AppliedPatch applyInPlaceWithInverse(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags)
+            throws JsonPatchApplicationException {
+        InPlaceApplyProcessor processor = InPlaceApplyProcessor.forTarget(source, flags);
+        InversePatchBuilder inverse = new InversePatchBuilder();
+        processor.recordInverse(inverse);
+        applyInPlace(patch, processor, flags, null);
+        return new AppliedPatch(processor.result(), inverse.build());
+    }
+
+    public static AppliedPatch applyInPlaceWithInverse(JsonNode patch, JsonNode source) throws JsonPatchApplicationException {
+        return applyInPlaceWithInverse(patch, source, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Composes a sequence of patches into a single patch, which has the same effect as applying them one after the
+     * other. The operations are concatenated and optimized, so replacements are merged into the previous operation on
+     * their path, edits of descendants are folded into the value of a preceding add or replace of their ancestor, and
+     * operations made irrelevant by a later removal or replacement of one of their ancestors are dropped. Adds, copies
+     * and moves are not combined with later operations on their path, as they may overwrite an existing member.
+     * <p>
+     * Test operations are kept, and the other operations are not combined across a test of a path they interfere with,
+     * so the composed patch fails when one of the tests of the sequence would.
+     *
+     * @param patches The patches to compose, in the order they would be applied. They are not modified.
+     * @param flags The flags used when validating the patches.
+     * @return The composed patch.
+     * @throws InvalidJsonPatchException One of the patches is invalid.
+     * @since 0.4.10
+     */
+    public static JsonNode compose(List<JsonNode> patches, EnumSet<CompatibilityFlags> flags) throws InvalidJsonPatchException {
+        ArrayNode composed = JsonNodeFactory.instance.arrayNode();
+        for (JsonNode patch : patches) {
+            validate(patch, flags);
+            for (JsonNode operation : patch) {
+                composed.add(operation.deepCopy());
+            }
+        }
+        return JsonPatchOptimizer.forAnyPatch().optimize(composed);
+    }
+
+    public static JsonNode compose(List<JsonNode> patches) throws InvalidJsonPatchException {
+        return compose(patches, CompatibilityFlags.defaults());
+    }
+
+    private static void applyInPlace(JsonNode patch, InPlaceApplyProcessor processor, EnumSet<CompatibilityFlags> flags,
+                                     JsonPointerCache pointers) {
+        try {
+            process(patch, processor, flags, pointers,
+                    !flags.contains(CompatibilityFlags.ATTACH_PATCH_VALUES_WITHOUT_COPY));
+            processor.flush();
+        } catch (RuntimeException e) {
+            processor.rollback();
+            throw e;
+        }
     }
 }
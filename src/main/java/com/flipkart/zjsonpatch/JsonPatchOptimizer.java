@@ -4,9 +4,18 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static com.flipkart.zjsonpatch.Operation.*;
 
@@ -14,6 +23,9 @@ public class JsonPatchOptimizer {
 
     public static abstract class OperationOptimizer {
 
+        // whether the test operations are kept, so that the other operations are not combined across them
+        private boolean keepingTests;
+
         abstract protected boolean optimize(ObjectNode operation, List<ObjectNode> operations, int idx);
 
         abstract protected Operation getOp();
@@ -34,7 +46,7 @@ public class JsonPatchOptimizer {
         }
 
         protected int searchForNonTestPreviousOperation(List<ObjectNode> operations, ObjectNode operation, String field, int fromIdx, String targetField) {
-            return searchForPreviousOperation(operations, operation, field, fromIdx, targetField, TEST);
+            return searchForPreviousOperation(operations, operation, field, fromIdx, targetField, keepingTests ? null : TEST);
         }
 
         protected int searchForPreviousOperation(List<ObjectNode> operations, ObjectNode operation, String field, int fromIdx, String targetField, Operation filteredOutOperation) {
@@ -43,14 +55,33 @@ public class JsonPatchOptimizer {
             }
 
             String fieldValue = operation.get(field).asText();
-            for (int i = fromIdx - 1; i >= 0; i--) {
-                ObjectNode op = operations.get(i);
-                if (op != null && (filteredOutOperation == null || !isOp(filteredOutOperation, op)) &&
-                    op.hasNonNull(targetField) && fieldValue.equals(op.get(targetField).asText())) {
-                    return i;
+            int previousIdx = -1;
+            if (operations instanceof IndexedOperations) {
+                previousIdx = ((IndexedOperations) operations).searchBefore(fromIdx, fieldValue, targetField, filteredOutOperation);
+            } else {
+                for (int i = fromIdx - 1; i >= 0 && previousIdx == -1; i--) {
+                    ObjectNode op = operations.get(i);
+                    if (op != null && (filteredOutOperation == null || !isOp(filteredOutOperation, op)) &&
+                        op.hasNonNull(targetField) && fieldValue.equals(op.get(targetField).asText())) {
+                        previousIdx = i;
+                    }
                 }
             }
-            return -1;
+            // the operations can only be combined if the path means the same in between
+            if (previousIdx != -1 &&
+                interferingBetween(operations, fieldValue, previousIdx, fromIdx, keepingTests, isShifting(operation))) {
+                return -1;
+            }
+            return previousIdx;
+        }
+
+        /**
+         * Checks whether an operation between the specified indexes (both exclusive) interferes with the path, assuming
+         * the operations being combined on it insert or remove an element. Tests don't count, as they don't modify the
+         * document, unless they are kept in the patch.
+         */
+        protected boolean hasInterferingOperation(List<ObjectNode> operations, String path, int fromIdx, int toIdx) {
+            return interferingBetween(operations, path, fromIdx, toIdx, keepingTests, true);
         }
 
         protected void removeOperation(List<ObjectNode> operations, int idx) {
@@ -68,6 +99,10 @@ public class JsonPatchOptimizer {
             }
 
             ObjectNode previousOperation = operations.get(previousIdx);
+            if (!operation.hasNonNull("path") ||
+                hasInterferingOperation(operations, operation.get("path").asText(), previousIdx, idx)) {
+                return false;
+            }
             if (isOp(ADD, previousOperation) || isOp(MOVE, previousOperation) || isOp(COPY, previousOperation)) {
                 removeOperation(operations, idx);
                 previousOperation.set("path", operation.get("path"));
@@ -95,7 +130,11 @@ public class JsonPatchOptimizer {
             ObjectNode previousOperation = operations.get(previousIdx);
             if (isOp(COPY, previousOperation)) {
                 int previousPreviousIdx = searchForNonTestPreviousOperation(operations, operation, "path", previousIdx, "path");
-                if (previousPreviousIdx == -1 || !isOp(ADD, operations.get(previousPreviousIdx))) {
+                // the copy can only take the place of the add if its target doesn't depend on the removed path
+                String copied = textOf(previousOperation, Constants.PATH);
+                String removed = operation.get("path").asText();
+                if (previousPreviousIdx == -1 || !isOp(ADD, operations.get(previousPreviousIdx)) ||
+                    (copied != null && (overlaps(copied, removed) || shifts(removed, copied)))) {
                     return optimizeRemoveAddOrCopy(operation, operations, idx);
                 }
 
@@ -194,21 +233,78 @@ public class JsonPatchOptimizer {
     }
 
     private final List<OperationOptimizer> operationOptimizers;
+    private final boolean optimizeSubtrees;
 
+    /**
+     * Creates an optimizer applying the default rules. Besides combining operations on the same path, it folds edits
+     * of descendants into the add or replace operation of an ancestor which precedes them, and drops operations on
+     * descendants of a path which is removed or replaced later on.
+     */
     public JsonPatchOptimizer() {
-        this(Arrays.asList(new MoveOperationOptimizer(), new ReplaceOperationOptimizer(), new RemoveOperationOptimizer(), new TestOperationOptimizer()));
+        this(Arrays.asList(new MoveOperationOptimizer(), new ReplaceOperationOptimizer(), new RemoveOperationOptimizer(), new TestOperationOptimizer()), true);
     }
 
     public JsonPatchOptimizer(List<OperationOptimizer> operationOptimizers) {
+        this(operationOptimizers, false);
+    }
+
+    /**
+     * Creates an optimizer for any patch, rather than one produced by {@link JsonDiff}. An add, copy or move may then
+     * overwrite an existing member, which is only known when applying the patch, so their targets are handled like the
+     * ones of a replacement: only replacements are merged into a previous operation on their path, and nothing is
+     * cancelled by a later move or removal. Test operations are kept, and no operation is combined across a test of a
+     * path it interferes with. Edits of descendants are still folded and dropped, as that doesn't depend on whether
+     * their ancestor existed.
+     */
+    static JsonPatchOptimizer forAnyPatch() {
+        OperationOptimizer replaceOptimizer = new ReplaceOperationOptimizer();
+        replaceOptimizer.keepingTests = true;
+        return new JsonPatchOptimizer(Collections.<OperationOptimizer>singletonList(replaceOptimizer), true);
+    }
+
+    private JsonPatchOptimizer(List<OperationOptimizer> operationOptimizers, boolean optimizeSubtrees) {
         this.operationOptimizers = operationOptimizers;
+        this.optimizeSubtrees = optimizeSubtrees;
     }
 
+    /** Patches smaller than this are optimized by scanning them, which is faster than indexing them first. */
+    private static final int INDEX_THRESHOLD = 64;
+
+    /**
+     * Optimizes the patch in place. Operations of large patches are indexed by their path and from-path, so looking
+     * up the previous operation on a path doesn't scan the patch. After the first pass, an operation is only optimized
+     * again if an operation before it on one of its paths has been rewritten or removed.
+     */
     public JsonNode optimize(ArrayNode patch) {
+        return optimize(patch, patch.size() >= INDEX_THRESHOLD);
+    }
+
+    /** Optimizes the patch in place, indexing its operations or scanning the patch whatever its size. */
+    JsonNode optimize(ArrayNode patch, boolean indexed) {
+        List<ObjectNode> operations = indexed ? indexOperations(patch) : scanOperations(patch);
+
+        for (int i = operations.size() - 1; i >= 0; i--) {
+            if (operations.get(i) == null) {
+                patch.remove(i);
+            }
+        }
+
+        return patch;
+    }
+
+    private List<ObjectNode> scanOperations(ArrayNode patch) {
         List<ObjectNode> operations = new ArrayList<>();
         for (int i = 0; i < patch.size(); i++) {
             operations.add((ObjectNode) patch.get(i));
         }
 
+        do {
+            applyOperationOptimizers(operations);
+        } while (optimizeSubtrees && optimizeSubtrees(operations));
+        return operations;
+    }
+
+    private void applyOperationOptimizers(List<ObjectNode> operations) {
         boolean optimizationOccured = true;
         while (optimizationOccured) {
             optimizationOccured = false;
@@ -217,18 +313,803 @@ public class JsonPatchOptimizer {
                 optimizationOccured = optimizationOccured || result;
             }
         }
+    }
 
-        for (int i = operations.size() - 1; i >= 0; i--) {
-            if (operations.get(i) == null) {
-                patch.remove(i);
+    private List<ObjectNode> indexOperations(ArrayNode patch) {
+        IndexedOperations operations = new IndexedOperations(patch);
+
+        do {
+            applyOperationOptimizers(operations);
+        } while (optimizeSubtrees && optimizeSubtrees(operations));
+        return operations;
+    }
+
+    private void applyOperationOptimizers(IndexedOperations operations) {
+        int optimizerCount = operationOptimizers.size();
+        List<TreeSet<Integer>> pending = new ArrayList<>(optimizerCount);
+        for (int k = 0; k < optimizerCount; k++) {
+            TreeSet<Integer> all = new TreeSet<Integer>();
+            for (int i = 1; i < operations.size(); i++) {
+                all.add(i);
             }
+            pending.add(all);
         }
 
-        return patch;
+        boolean pendingOperations = operations.size() > 1;
+        while (pendingOperations) {
+            List<TreeSet<Integer>> nextRound = new ArrayList<>(optimizerCount);
+            for (int k = 0; k < optimizerCount; k++) {
+                nextRound.add(new TreeSet<Integer>());
+            }
+
+            for (int k = 0; k < optimizerCount; k++) {
+                OperationOptimizer operationOptimizer = operationOptimizers.get(k);
+                TreeSet<Integer> current = pending.get(k);
+                Integer i;
+                while ((i = current.pollLast()) != null) {
+                    ObjectNode operation = operations.get(i);
+                    if (!isOp(operationOptimizer.getOp(), operation))
+                        continue;
+
+                    operations.startTracking(i);
+                    if (!operationOptimizer.optimize(operation, operations, i)) {
+                        operations.stopTracking();
+                        continue;
+                    }
+                    for (int affected : operations.reindexTracked()) {
+                        if (affected < 1)
+                            continue;
+                        // optimizers still to run in this round will see the operation anyway
+                        for (int m = 0; m < optimizerCount; m++) {
+                            if (m > k || (m == k && affected < i))
+                                pending.get(m).add(affected);
+                            else
+                                nextRound.get(m).add(affected);
+                        }
+                    }
+                }
+            }
+
+            pending = nextRound;
+            pendingOperations = false;
+            for (TreeSet<Integer> operationsToRevisit : pending) {
+                pendingOperations = pendingOperations || !operationsToRevisit.isEmpty();
+            }
+        }
+    }
+
+    /**
+     * Limits how many operations in the scope of a removed or replaced path are looked at for ones to drop. The walk
+     * back steps through every operation on the outermost array on the path, so without a limit a patch editing many
+     * elements of the same array would take quadratic time. The operations beyond the limit are kept, which only
+     * leaves the patch less compact; 64 covers the edits of a removed element's descendants made shortly before it.
+     */
+    private static final int SHADOW_SEARCH_LIMIT = 64;
+
+    /**
+     * Folds edits of descendants into the add or replace operation of an ancestor which precedes them, then drops
+     * the operations on descendants of a path which is removed or replaced later on. These rules look at the paths
+     * in between rather than at a single previous operation, so they are applied to the whole patch once the other
+     * optimizers are done.
+     */
+    private static boolean optimizeSubtrees(List<ObjectNode> operations) {
+        boolean folded = foldIntoAncestors(operations);
+        boolean dropped = dropShadowedOperations(operations);
+        return folded || dropped;
+    }
+
+    private static boolean foldIntoAncestors(List<ObjectNode> operations) {
+        boolean optimized = false;
+        // the values copied from the operations folded into, which are modified in place by the next edits folded
+        Set<JsonNode> copies = Collections.newSetFromMap(new IdentityHashMap<JsonNode, Boolean>());
+        for (int i = 1; i < operations.size(); i++) {
+            ObjectNode operation = operations.get(i);
+            String path = textOf(operation, Constants.PATH);
+            if (path == null || !(isOp(ADD, operation) || isOp(REPLACE, operation) || isOp(REMOVE, operation)) ||
+                (!isOp(REMOVE, operation) && !operation.has(Constants.VALUE)))
+                continue;
+
+            // the nearest operation which may change or test what the path refers to must have created its ancestor
+            int previousIdx = previousInterfering(operations, path, i, true, isShifting(operation));
+            ObjectNode previousOperation = previousIdx != -1 ? operations.get(previousIdx) : null;
+            String ancestor = textOf(previousOperation, Constants.PATH);
+            if (ancestor == null || !(isOp(ADD, previousOperation) || isOp(REPLACE, previousOperation)) ||
+                !isDescendant(path, ancestor) || !previousOperation.has(Constants.VALUE))
+                continue;
+
+            JsonPointer relativePath = JsonPointer.parse(path.substring(ancestor.length()));
+            JsonNode value = previousOperation.get(Constants.VALUE);
+            // the operation would fail, so it is left for the patch to report
+            if (!appliesTo(operation, relativePath, value))
+                continue;
+
+            if (!copies.contains(value)) {
+                value = value.deepCopy();
+                copies.add(value);
+            }
+            Operation op = Operation.fromRfcName(textOf(operation, Constants.OP));
+            InPlaceApplyProcessor processor = new InPlaceApplyProcessor(value);
+            new PatchOperation(op, relativePath, null, operation.get(Constants.VALUE)).applyTo(processor);
+            previousOperation.set(Constants.VALUE, processor.result());
+            drop(operations, i);
+            optimized = true;
+        }
+        return optimized;
+    }
+
+    /**
+     * Checks whether an add, replace or remove operation can be applied to the value at the specified path, which
+     * isn't the root. Like when applying a patch, a member of an object may be added or removed whether it exists or
+     * not, and only existing elements of an array may be replaced or removed.
+     */
+    private static boolean appliesTo(ObjectNode operation, JsonPointer path, JsonNode value) {
+        JsonNode parent;
+        try {
+            parent = path.getParent().evaluate(value);
+        } catch (JsonPointerEvaluationException e) {
+            return false;
+        }
+        JsonPointer.RefToken token = path.last();
+        if (parent.isObject())
+            return !isOp(REPLACE, operation) || parent.has(token.getField());
+        if (!parent.isArray() || !token.isArrayIndex())
+            return false;
+        if (isOp(ADD, operation))
+            return token.getIndex() == JsonPointer.LAST_INDEX || token.getIndex() <= parent.size();
+        return token.getIndex() != JsonPointer.LAST_INDEX && token.getIndex() < parent.size();
+    }
+
+    /**
+     * Checks whether an operation between the specified indexes (both exclusive) interferes with the path, see
+     * {@link #interferesWith(String, ObjectNode, boolean)}.
+     */
+    private static boolean interferingBetween(List<ObjectNode> operations, String path, int fromIdx, int toIdx,
+                                              boolean includingTests, boolean shifting) {
+        if (operations instanceof IndexedOperations) {
+            return ((IndexedOperations) operations).interferesBetween(path, fromIdx, toIdx, includingTests, shifting);
+        }
+        for (int i = fromIdx + 1; i < toIdx; i++) {
+            ObjectNode op = operations.get(i);
+            if (op != null && (includingTests || !isOp(TEST, op)) && interferesWith(path, op, shifting)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the last operation before the specified index which interferes with the path, or -1. */
+    private static int previousInterfering(List<ObjectNode> operations, String path, int idx, boolean includingTests, boolean shifting) {
+        if (operations instanceof IndexedOperations) {
+            return ((IndexedOperations) operations).lastInterferingBefore(path, idx, includingTests, shifting);
+        }
+        for (int i = idx - 1; i >= 0; i--) {
+            ObjectNode op = operations.get(i);
+            if (op != null && (includingTests || !isOp(TEST, op)) && interferesWith(path, op, shifting)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean dropShadowedOperations(List<ObjectNode> operations) {
+        boolean optimized = false;
+        for (int i = operations.size() - 1; i >= 1; i--) {
+            ObjectNode operation = operations.get(i);
+            String path = textOf(operation, Constants.PATH);
+            if (path != null && (isOp(REMOVE, operation) || isOp(REPLACE, operation))) {
+                boolean result = dropShadowedBy(operations, path, i);
+                optimized = optimized || result;
+            }
+        }
+        return optimized;
+    }
+
+    /**
+     * Walks back from a removal or replacement of the path, dropping the operations on its descendants. Insertions
+     * and removals of elements before it in an array on the path shift its index, so the path is translated to what
+     * it referred to before them. The walk stops at an operation which reads the path's value or creates it.
+     */
+    private static boolean dropShadowedBy(List<ObjectNode> operations, String path, int idx) {
+        boolean optimized = false;
+        String scope = scope(path);
+        String current = path;
+        int examined = 0;
+        for (int i = previousInScope(operations, current, scope, idx); i != -1; i = previousInScope(operations, current, scope, i)) {
+            ObjectNode operation = operations.get(i);
+            if (isPrefixOfKey(current, operation) || ++examined > SHADOW_SEARCH_LIMIT)
+                break;
+            if (isShadowed(current, operation)) {
+                drop(operations, i);
+                optimized = true;
+            } else {
+                current = pathBefore(operation, current);
+                if (current == null)
+                    break;
+            }
+        }
+        return optimized;
+    }
+
+    /** Returns the last operation before the specified index on an ancestor of the path, the path, or in its scope. */
+    private static int previousInScope(List<ObjectNode> operations, String path, String scope, int idx) {
+        if (operations instanceof IndexedOperations) {
+            return ((IndexedOperations) operations).previousInScope(path, scope, idx);
+        }
+        for (int i = idx - 1; i >= 0; i--) {
+            ObjectNode op = operations.get(i);
+            if (op != null && (isPrefixOfKey(path, op) || isDescendant(textOf(op, Constants.PATH), scope) ||
+                               isDescendant(textOf(op, Constants.FROM), scope))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isPrefixOfKey(String path, ObjectNode operation) {
+        String target = textOf(operation, Constants.PATH);
+        String source = textOf(operation, Constants.FROM);
+        return (target != null && isPrefix(target, path)) || (source != null && isPrefix(source, path));
+    }
+
+    /**
+     * Returns the path which referred to the same value as the specified one before the operation, or {@code null}
+     * if the operation reads or modifies that value.
+     */
+    private static String pathBefore(ObjectNode operation, String path) {
+        String target = textOf(operation, Constants.PATH);
+        if (isOp(TEST, operation))
+            return isDescendant(target, path) ? null : path;
+        if (isDescendant(target, path))
+            return null;
+        if (isOp(REMOVE, operation))
+            path = beforeRemoval(target, path);
+        else if (!isOp(REPLACE, operation))
+            path = beforeInsertion(target, path);
+
+        String source = textOf(operation, Constants.FROM);
+        if (path == null || source == null)
+            return path;
+        if (isPrefix(source, path) || isDescendant(source, path))
+            return null;
+        return isOp(MOVE, operation) ? beforeRemoval(source, path) : path;
+    }
+
+    private static String beforeInsertion(String target, String path) {
+        int[] token = siblingToken(target, path);
+        if (token == null || target.endsWith("/-"))
+            return path;
+        int index = parseIndex(target, target.lastIndexOf('/') + 1, target.length());
+        int current = parseIndex(path, token[0], token[1]);
+        if (index == -1 || current == -1 || index == current)
+            return null;
+        return index < current ? withToken(path, token, current - 1) : path;
+    }
+
+    private static String beforeRemoval(String target, String path) {
+        int[] token = siblingToken(target, path);
+        if (token == null)
+            return path;
+        int index = target.endsWith("/-") ? -1 : parseIndex(target, target.lastIndexOf('/') + 1, target.length());
+        int current = parseIndex(path, token[0], token[1]);
+        if (index == -1 || current == -1)
+            return null;
+        return index <= current ? withToken(path, token, current + 1) : path;
+    }
+
+    /** Parses an array index token, or returns -1 if it is too large to be a valid index. */
+    private static int parseIndex(String path, int start, int end) {
+        return end - start < 10 ? Integer.parseInt(path.substring(start, end)) : -1;
+    }
+
+    private static String withToken(String path, int[] token, int index) {
+        return path.substring(0, token[0]) + index + path.substring(token[1]);
+    }
+
+    /**
+     * If the target is an element of an array the path goes through, returns the bounds of the path's token for
+     * that array, or {@code null} otherwise.
+     */
+    private static int[] siblingToken(String target, String path) {
+        int slash = target.lastIndexOf('/');
+        if (slash == -1 || !isDescendant(path, target.substring(0, slash)) || !isArrayToken(target, slash + 1, target.length()))
+            return null;
+        int start = slash + 1;
+        int end = path.indexOf('/', start);
+        end = end == -1 ? path.length() : end;
+        if (!isArrayToken(path, start, end) || path.charAt(start) == '-')
+            return null;
+        return new int[] { start, end };
+    }
+
+    private static void drop(List<ObjectNode> operations, int idx) {
+        operations.set(idx, null);
+        if (operations instanceof IndexedOperations)
+            ((IndexedOperations) operations).reindex(idx);
+    }
+
+    /**
+     * The operations of a patch being optimized, indexed by the text of their path and from-path. Optimizers modify
+     * the operations they find through {@link OperationOptimizer#searchForPreviousOperation}, so those are the ones
+     * tracked for reindexing after an optimization.
+     */
+    private static final class IndexedOperations extends AbstractList<ObjectNode> {
+        private final ObjectNode[] operations;
+        private final String[] indexedOps;
+        private final String[] indexedPaths;
+        private final String[] indexedFroms;
+        private final String[] indexedInserted;
+        private final String[] indexedRemoved;
+        private final Map<String, TreeSet<Integer>> byPath = new HashMap<String, TreeSet<Integer>>();
+        private final Map<String, TreeSet<Integer>> byFrom = new HashMap<String, TreeSet<Integer>>();
+        // The operations inserting or removing an element of an array, by the path of that array
+        private final Map<String, TreeSet<Integer>> byArray = new HashMap<String, TreeSet<Integer>>();
+        private final PointerTrie byAncestor = new PointerTrie();
+        private final TreeSet<Integer> tracked = new TreeSet<Integer>();
+        private boolean tracking;
+
+        private IndexedOperations(ArrayNode patch) {
+            operations = new ObjectNode[patch.size()];
+            indexedOps = new String[operations.length];
+            indexedPaths = new String[operations.length];
+            indexedFroms = new String[operations.length];
+            indexedInserted = new String[operations.length];
+            indexedRemoved = new String[operations.length];
+            for (int i = 0; i < operations.length; i++) {
+                operations[i] = (ObjectNode) patch.get(i);
+                index(i);
+            }
+        }
+
+        @Override
+        public ObjectNode get(int index) {
+            return operations[index];
+        }
+
+        @Override
+        public int size() {
+            return operations.length;
+        }
+
+        @Override
+        public ObjectNode set(int index, ObjectNode element) {
+            ObjectNode previous = operations[index];
+            operations[index] = element;
+            track(index);
+            return previous;
+        }
+
+        private void startTracking(int index) {
+            tracked.clear();
+            tracking = true;
+            tracked.add(index);
+        }
+
+        private void stopTracking() {
+            tracking = false;
+            tracked.clear();
+        }
+
+        private void track(int index) {
+            if (tracking)
+                tracked.add(index);
+        }
+
+        int searchBefore(int fromIdx, String fieldValue, String targetField, Operation filteredOutOperation) {
+            TreeSet<Integer> candidates = (Constants.PATH.equals(targetField) ? byPath : byFrom).get(fieldValue);
+            if (candidates != null) {
+                Iterator<Integer> iterator = candidates.headSet(fromIdx, false).descendingIterator();
+                while (iterator.hasNext()) {
+                    int i = iterator.next();
+                    ObjectNode op = operations[i];
+                    if (op != null && (filteredOutOperation == null || !isOp(filteredOutOperation, op))) {
+                        track(i);
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Checks for an interfering operation between the indexes, among the ones on the path, its ancestors or its
+         * descendants, the ones inserting or removing an element of an array on the path and, if the path is an
+         * element shifted by the operations being combined, the ones on its siblings.
+         */
+        boolean interferesBetween(String path, int fromIdx, int toIdx, boolean includingTests, boolean shifting) {
+            for (TreeSet<Integer> positions : candidates(path, shifting)) {
+                for (int i : positions.subSet(fromIdx, false, toIdx, false)) {
+                    if ((includingTests || !isOp(TEST, operations[i])) && interferesWith(path, operations[i], shifting))
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        /** Returns the index of the last operation before the specified one which interferes with the path, or -1. */
+        int lastInterferingBefore(String path, int idx, boolean includingTests, boolean shifting) {
+            int last = -1;
+            for (TreeSet<Integer> positions : candidates(path, shifting)) {
+                for (Integer i = positions.lower(idx); i != null && i > last; i = positions.lower(i)) {
+                    if ((includingTests || !isOp(TEST, operations[i])) && interferesWith(path, operations[i], shifting)) {
+                        last = i;
+                        break;
+                    }
+                }
+            }
+            return last;
+        }
+
+        private List<TreeSet<Integer>> candidates(String path, boolean shifting) {
+            List<TreeSet<Integer>> candidates = new ArrayList<TreeSet<Integer>>();
+            for (String prefix : prefixes(path, true)) {
+                addIfPresent(candidates, byPath.get(prefix));
+                addIfPresent(candidates, byFrom.get(prefix));
+                addIfPresent(candidates, byArray.get(prefix));
+            }
+            addIfPresent(candidates, byAncestor.below(path));
+            String array = arrayOf(path);
+            if (shifting && array != null)
+                addIfPresent(candidates, byAncestor.below(array));
+            return candidates;
+        }
+
+        private static void addIfPresent(List<TreeSet<Integer>> candidates, TreeSet<Integer> positions) {
+            if (positions != null)
+                candidates.add(positions);
+        }
+
+        int previousInScope(String path, String scope, int idx) {
+            int last = lower(byAncestor.below(scope), idx);
+            for (String prefix : prefixes(path, true)) {
+                last = Math.max(last, lower(byPath.get(prefix), idx));
+                last = Math.max(last, lower(byFrom.get(prefix), idx));
+            }
+            return last;
+        }
+
+        private static int lower(TreeSet<Integer> positions, int idx) {
+            Integer lower = positions != null ? positions.lower(idx) : null;
+            return lower != null ? lower : -1;
+        }
+
+        void reindex(int i) {
+            unindex(i);
+            index(i);
+        }
+
+        /**
+         * Updates the index for the operations tracked since the optimization started, and returns them along with
+         * the following operations whose search for a previous operation may now give another result, either
+         * because they are on the same path, or because the tracked operation may interfere with their path.
+         */
+        private TreeSet<Integer> reindexTracked() {
+            TreeSet<Integer> affected = new TreeSet<Integer>();
+            Map<Integer, String[]> before = new HashMap<Integer, String[]>();
+            for (int i : tracked) {
+                before.put(i, keys(i));
+                unindex(i);
+                index(i);
+                if (operations[i] != null)
+                    affected.add(i);
+            }
+            for (int i : tracked) {
+                String[] previous = before.get(i);
+                String[] current = keys(i);
+                Set<String> interfering = new HashSet<String>();
+                for (String[] keys : Arrays.asList(previous, current)) {
+                    addOverlapping(keys[0], interfering);
+                    addOverlapping(keys[1], interfering);
+                }
+                // the searches skip tests, and an operation left on the same paths interferes with the same ones
+                boolean unchanged = TEST.rfcName().equals(previous[4]) || Arrays.equals(previous, current);
+                int merged = unchanged ? -1 : mergedInto(i, previous);
+                if (merged != -1) {
+                    addMergedAcross(previous[0], merged, i, interfering);
+                } else if (!unchanged) {
+                    for (String[] keys : Arrays.asList(previous, current)) {
+                        addShifted(keys[2], interfering);
+                        addShifted(keys[3], interfering);
+                        for (String key : Arrays.asList(keys[0], keys[1])) {
+                            for (String prefix : key != null ? prefixes(key, false) : Collections.<String>emptyList()) {
+                                addShifting(prefix, i, interfering);
+                            }
+                        }
+                    }
+                }
+                for (String path : interfering) {
+                    addFollowingOnSamePath(path, i, affected);
+                }
+            }
+            stopTracking();
+            return affected;
+        }
+
+        /** Adds the paths of the operations on the key, its ancestors or its descendants. */
+        private void addOverlapping(String key, Set<String> paths) {
+            if (key != null) {
+                paths.addAll(prefixes(key, true));
+                byAncestor.collectBelow(key, paths);
+            }
+        }
+
+        /** Adds the paths of the operations on, or below, the elements shifted by inserting or removing the element. */
+        private void addShifted(String element, Set<String> paths) {
+            String array = arrayOf(element);
+            if (array != null)
+                byAncestor.collectElementsFrom(array, element.substring(array.length() + 1), paths);
+        }
+
+        private String[] keys(int i) {
+            return new String[] { indexedPaths[i], indexedFroms[i], indexedInserted[i], indexedRemoved[i], indexedOps[i] };
+        }
+
+        /**
+         * If the operation was a replacement which has been merged into a previous operation on the same path,
+         * returns the index of that operation, or -1 otherwise. The previous operation interferes with whatever the
+         * replacement did, so only the searches starting in between them may now give another result.
+         */
+        private int mergedInto(int i, String[] previous) {
+            if (!REPLACE.rfcName().equals(previous[4]))
+                return -1;
+            Integer merged = tracked.lower(i);
+            return merged != null && previous[0].equals(indexedPaths[merged]) && !isOp(TEST, operations[merged]) ? merged : -1;
+        }
+
+        /**
+         * Adds the paths of the operations whose search may give another result once the replacement at the specified
+         * index has been merged into the previous operation on its path. That operation interferes with whatever the
+         * replacement did, so only the searches starting in between them are affected, which are made by insertions
+         * and removals following the replacement that shift an element before the path. Either the paths of these or
+         * the ones of the operations in between are added, whichever are fewer.
+         */
+        private void addMergedAcross(String path, int merged, int replaced, Set<String> paths) {
+            Set<String> shifting = new HashSet<String>();
+            for (String prefix : prefixes(path, false)) {
+                TreeSet<Integer> positions = byArray.get(prefix);
+                for (int j : positions != null ? positions.tailSet(replaced, false) : Collections.<Integer>emptySet()) {
+                    if (shifting.size() >= replaced - merged - 1) {
+                        for (int k = merged + 1; k < replaced; k++) {
+                            addIfPresent(paths, indexedPaths[k]);
+                            addIfPresent(paths, indexedFroms[k]);
+                        }
+                        return;
+                    }
+                    addIfPresent(shifting, indexedPaths[j]);
+                    addIfPresent(shifting, indexedFroms[j]);
+                }
+            }
+            paths.addAll(shifting);
+        }
+
+        /**
+         * Adds the paths of the operations after the specified index inserting or removing an element of the array, as
+         * they interfere with the operations on or below the elements following it.
+         */
+        private void addShifting(String array, int index, Set<String> paths) {
+            TreeSet<Integer> shifting = byArray.get(array);
+            if (shifting != null) {
+                for (int j : shifting.tailSet(index, false)) {
+                    addIfPresent(paths, indexedPaths[j]);
+                    addIfPresent(paths, indexedFroms[j]);
+                }
+            }
+        }
+
+        /**
+         * Adds the operations after the specified index which look up the previous operation on the specified path.
+         * A search finds the nearest matching operation, so the ones following the next non-test operation on that
+         * path don't see the change, unless they search again before a copy from that path.
+         */
+        private void addFollowingOnSamePath(String key, int index, TreeSet<Integer> affected) {
+            TreeSet<Integer> paths = byPath.get(key);
+            TreeSet<Integer> froms = byFrom.get(key);
+            int nextPath = nextNonTest(paths, index);
+            int nextFrom = nextNonTest(froms, index);
+            int lastCopy = froms != null && nextPath != Integer.MAX_VALUE ? lastBetween(froms, index, nextPath) : -1;
+            int bound = Math.max(Math.max(nextPath, nextFrom), lastCopy >= 0 ? nextNonTest(froms, lastCopy) : -1);
+
+            addBetween(paths, index, bound, affected);
+            addBetween(froms, index, bound, affected);
+        }
+
+        private int nextNonTest(TreeSet<Integer> positions, int index) {
+            if (positions != null) {
+                for (int i : positions.tailSet(index, false)) {
+                    if (!isOp(TEST, operations[i]))
+                        return i;
+                }
+            }
+            return Integer.MAX_VALUE;
+        }
+
+        private static int lastBetween(TreeSet<Integer> positions, int from, int to) {
+            Integer last = positions.floor(to);
+            return last != null && last > from ? last : -1;
+        }
+
+        private static void addBetween(TreeSet<Integer> positions, int from, int to, TreeSet<Integer> affected) {
+            if (positions != null)
+                affected.addAll(positions.subSet(from, false, to, true));
+        }
+
+        private void index(int i) {
+            ObjectNode op = operations[i];
+            indexedOps[i] = textOf(op, Constants.OP);
+            indexedPaths[i] = op != null && op.hasNonNull(Constants.PATH) ? op.get(Constants.PATH).asText() : null;
+            indexedFroms[i] = op != null && op.hasNonNull(Constants.FROM) ? op.get(Constants.FROM).asText() : null;
+            add(byPath, indexedPaths[i], i);
+            add(byFrom, indexedFroms[i], i);
+            byAncestor.add(i, indexedPaths[i], indexedFroms[i]);
+            indexedInserted[i] = isOp(ADD, op) || isOp(COPY, op) || isOp(MOVE, op) ? indexedPaths[i] : null;
+            indexedRemoved[i] = isOp(REMOVE, op) ? indexedPaths[i] : isOp(MOVE, op) ? indexedFroms[i] : null;
+            String inserted = arrayOf(indexedInserted[i]);
+            String removed = arrayOf(indexedRemoved[i]);
+            add(byArray, inserted, i);
+            if (removed != null && !removed.equals(inserted))
+                add(byArray, removed, i);
+        }
+
+        private void unindex(int i) {
+            remove(byPath, indexedPaths[i], i);
+            remove(byFrom, indexedFroms[i], i);
+            byAncestor.remove(i, indexedPaths[i], indexedFroms[i]);
+            String inserted = arrayOf(indexedInserted[i]);
+            String removed = arrayOf(indexedRemoved[i]);
+            remove(byArray, inserted, i);
+            if (removed != null && !removed.equals(inserted))
+                remove(byArray, removed, i);
+        }
+
+        private static void addIfPresent(Set<String> paths, String path) {
+            if (path != null)
+                paths.add(path);
+        }
+
+        private static void add(Map<String, TreeSet<Integer>> index, String key, int i) {
+            if (key == null)
+                return;
+            TreeSet<Integer> positions = index.get(key);
+            if (positions == null) {
+                positions = new TreeSet<Integer>();
+                index.put(key, positions);
+            }
+            positions.add(i);
+        }
+
+        private static void remove(Map<String, TreeSet<Integer>> index, String key, int i) {
+            if (key == null)
+                return;
+            TreeSet<Integer> positions = index.get(key);
+            positions.remove(i);
+            if (positions.isEmpty())
+                index.remove(key);
+        }
     }
 
     private static boolean isOp(Operation op, JsonNode operation) {
         return operation != null && op.rfcName().equals(operation.get("op").asText());
     }
 
+    /** Returns the ancestors of the path, root first, followed by the path itself if requested. */
+    private static List<String> prefixes(String path, boolean includingPath) {
+        List<String> prefixes = new ArrayList<String>();
+        for (int end = path.indexOf('/'); end != -1; end = path.indexOf('/', end + 1)) {
+            prefixes.add(path.substring(0, end));
+        }
+        if (includingPath)
+            prefixes.add(path);
+        return prefixes;
+    }
+
+    private static String textOf(JsonNode operation, String field) {
+        return operation != null && operation.hasNonNull(field) ? operation.get(field).asText() : null;
+    }
+
+    /** Checks whether the first path is the second one or one of its ancestors. */
+    static boolean isPrefix(String prefix, String path) {
+        return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+    }
+
+    private static boolean isDescendant(String path, String ancestor) {
+        return path != null && path.length() > ancestor.length() && isPrefix(ancestor, path);
+    }
+
+    /**
+     * Returns the part of the path an operation can affect without touching the path itself: the outermost array on
+     * the path, as inserting or removing any of its elements shifts the following ones, or else the path itself.
+     */
+    static String scope(String path) {
+        int start = path.indexOf('/');
+        while (start != -1) {
+            int end = path.indexOf('/', start + 1);
+            if (isArrayToken(path, start + 1, end == -1 ? path.length() : end))
+                return path.substring(0, start);
+            start = end;
+        }
+        return path;
+    }
+
+    private static boolean isArrayToken(String path, int start, int end) {
+        if (start == end)
+            return false;
+        if (end - start == 1 && path.charAt(start) == '-')
+            return true;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+
+    /** Checks whether an operation on the other path may change what the path refers to, or what it contains. */
+    static boolean interferes(String path, String other) {
+        return path != null && other != null && (isPrefix(other, path) || isDescendant(other, scope(path)));
+    }
+
+    /**
+     * Checks whether the operation may change what the path refers to, or what it contains: either its path or
+     * from-path is on the path, above or below it, or it inserts or removes an element of an array on the path
+     * which shifts the index the path goes through. If the operations combined on the path insert or remove an
+     * element, which shifts the following ones, an operation on one of these is in the way as well.
+     */
+    private static boolean interferesWith(String path, ObjectNode operation, boolean shifting) {
+        String target = textOf(operation, Constants.PATH);
+        String source = textOf(operation, Constants.FROM);
+        if (overlaps(path, target) || overlaps(path, source))
+            return true;
+        if (shifting && ((target != null && shifts(path, target)) || (source != null && shifts(path, source))))
+            return true;
+        if (isOp(REPLACE, operation) || isOp(TEST, operation))
+            return false;
+        return (target != null && shifts(target, path)) || (isOp(MOVE, operation) && source != null && shifts(source, path));
+    }
+
+    /** Checks whether the operation may insert or remove an element of an array. */
+    private static boolean isShifting(ObjectNode operation) {
+        return !isOp(REPLACE, operation) && !isOp(TEST, operation);
+    }
+
+    private static boolean overlaps(String path, String other) {
+        return other != null && (isPrefix(other, path) || isDescendant(other, path));
+    }
+
+    /**
+     * Checks whether inserting or removing the element shifts the index of an array element on the path, that is
+     * whether the element comes before it in the array, or either of them is the end of the array.
+     */
+    private static boolean shifts(String element, String path) {
+        int slash = element.lastIndexOf('/');
+        if (slash == -1 || path.length() <= slash || path.charAt(slash) != '/' || !path.regionMatches(0, element, 0, slash))
+            return false;
+        int end = path.indexOf('/', slash + 1);
+        end = end == -1 ? path.length() : end;
+        if (!isArrayToken(element, slash + 1, element.length()) || !isArrayToken(path, slash + 1, end))
+            return false;
+        if (path.charAt(slash + 1) == '-' || element.charAt(slash + 1) == '-')
+            return true;
+        if (element.length() != end)
+            return element.length() < end;
+        for (int i = slash + 1; i < end; i++) {
+            if (element.charAt(i) != path.charAt(i))
+                return element.charAt(i) < path.charAt(i);
+        }
+        return true;
+    }
+
+    /** Returns the path of the array the element at the specified path belongs to, or {@code null} if it isn't one. */
+    private static String arrayOf(String path) {
+        int slash = path != null ? path.lastIndexOf('/') : -1;
+        return slash != -1 && isArrayToken(path, slash + 1, path.length()) ? path.substring(0, slash) : null;
+    }
+
+    /** Checks whether the effect of an operation is limited to descendants of the path. */
+    private static boolean isShadowed(String path, ObjectNode operation) {
+        String target = textOf(operation, Constants.PATH);
+        if (target == null || !isDescendant(target, path) || isOp(TEST, operation))
+            return false;
+        String source = textOf(operation, Constants.FROM);
+        return !isOp(MOVE, operation) || (source != null && isDescendant(source, path));
+    }
+
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reorders the operations of a patch so that the ones on the same parent path follow each other, and applying the
+ * patch walks each container once instead of coming back to it, like when the edits of several producers are
+ * interleaved.
+ * <p>
+ * An operation is only moved before the ones it commutes with: operations on disjoint subtrees, which don't shift the
+ * elements of an array the other one goes through, and of which at most one writes. Operations on the same parent path
+ * keep their order, so the members added to an object keep theirs too, and the reordered patch has the same effect as
+ * the original one. If the patch fails, it may however fail at another operation.
+ *
+ * @since 0.4.10
+ */
+public class JsonPatchReorderer {
+
+    /** Limits how many groups an operation is moved back across to join the last group on its parent path. */
+    private static final int GROUP_SEARCH_LIMIT = 1024;
+
+    /** Limits how many operations an operation is checked against when moving it back. */
+    private static final int COMPARISON_LIMIT = 4096;
+
+    /** An operation, with the paths it reads and writes. */
+    private static final class Step {
+        private final JsonNode operation;
+        private final String parent;
+        private final String[] writes;
+        private final String[] reads;
+        /** The paths read or written, and their scopes. */
+        private final String[] paths;
+        private final String[] scopes;
+
+        private Step(JsonNode operation) {
+            this.operation = operation;
+            String path = textOf(operation, Constants.PATH);
+            String from = textOf(operation, Constants.FROM);
+            String op = textOf(operation, Constants.OP);
+            this.parent = path == null ? null : path.substring(0, Math.max(0, path.lastIndexOf('/')));
+            if (Operation.TEST.rfcName().equals(op)) {
+                writes = new String[0];
+                reads = new String[] {path};
+            } else if (Operation.COPY.rfcName().equals(op)) {
+                writes = new String[] {path};
+                reads = new String[] {from};
+            } else if (Operation.MOVE.rfcName().equals(op)) {
+                writes = new String[] {path, from};
+                reads = new String[0];
+            } else {
+                writes = new String[] {path};
+                reads = new String[0];
+            }
+            paths = from == null ? new String[] {path} : new String[] {path, from};
+            scopes = new String[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                scopes[i] = paths[i] == null ? null : JsonPatchOptimizer.scope(paths[i]);
+            }
+        }
+
+        /** Checks whether applying the operations in either order may have different effects. */
+        private boolean conflictsWith(Step other) {
+            for (String written : writes) {
+                for (String path : other.writes) {
+                    if (overlap(written, path))
+                        return true;
+                }
+                for (String path : other.reads) {
+                    if (overlap(written, path))
+                        return true;
+                }
+            }
+            for (String read : reads) {
+                for (String path : other.writes) {
+                    if (overlap(read, path))
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        /** Checks whether an operation on one of the paths may change what the other one refers to, or contains. */
+        private static boolean overlap(String path, String other) {
+            if (path == null || other == null)
+                return true;
+            return JsonPatchOptimizer.interferes(path, other) || JsonPatchOptimizer.interferes(other, path);
+        }
+    }
+
+    /** Consecutive operations of the reordered patch on the same parent path. */
+    private static final class Group {
+        private final String parent;
+        private final String scope;
+        private final List<Step> steps = new ArrayList<Step>();
+        /** Whether a move or copy of the group reads or writes a path which isn't a child of the parent path. */
+        private boolean elsewhere;
+
+        private Group(String parent) {
+            this.parent = parent;
+            this.scope = parent == null ? null : JsonPatchOptimizer.scope(parent);
+        }
+
+        private void add(Step step) {
+            steps.add(step);
+            elsewhere |= step.operation.has(Constants.FROM);
+        }
+
+        /**
+         * Checks whether an operation of this group may conflict with the specified one. Unless the group moves or
+         * copies, its operations are on children of the parent path, which may only conflict with a path if one of
+         * them is a prefix of the other, or if they go through the same array.
+         */
+        private boolean mayConflictWith(Step step) {
+            if (parent == null || elsewhere)
+                return true;
+            for (int i = 0; i < step.paths.length; i++) {
+                if (step.paths[i] == null || JsonPatchOptimizer.isPrefix(step.scopes[i], parent) ||
+                        JsonPatchOptimizer.isPrefix(scope, step.paths[i]))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reorders the patch in place. Each operation is moved back to the end of the last group of operations on its
+     * parent path, if it commutes with every operation after that group, or else starts a new group.
+     */
+    public JsonNode reorder(ArrayNode patch) {
+        List<Group> groups = new ArrayList<Group>();
+        Map<String, Integer> lastGroups = new HashMap<String, Integer>();
+        for (JsonNode operation : patch) {
+            Step step = new Step(operation);
+            Integer last = step.parent == null ? null : lastGroups.get(step.parent);
+            if (last == null || groups.size() - last - 1 > GROUP_SEARCH_LIMIT || !commutesWithGroupsAfter(step, groups, last)) {
+                last = groups.size();
+                groups.add(new Group(step.parent));
+                if (step.parent != null)
+                    lastGroups.put(step.parent, last);
+            }
+            groups.get(last).add(step);
+        }
+
+        patch.removeAll();
+        for (Group group : groups) {
+            for (Step step : group.steps) {
+                patch.add(step.operation);
+            }
+        }
+        return patch;
+    }
+
+    private static boolean commutesWithGroupsAfter(Step step, List<Group> groups, int index) {
+        int budget = COMPARISON_LIMIT;
+        for (int i = index + 1; i < groups.size(); i++) {
+            Group group = groups.get(i);
+            if (!group.mayConflictWith(step))
+                continue;
+            for (Step other : group.steps) {
+                if (--budget < 0 || step.conflictsWith(other))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static String textOf(JsonNode operation, String field) {
+        return operation.hasNonNull(field) ? operation.get(field).asText() : null;
+    }
+}
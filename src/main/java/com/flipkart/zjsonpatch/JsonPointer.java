@@ -6,8 +6,6 @@ import com.fasterxml.jackson.databind.JsonNode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Implements RFC 6901 (JSON Pointer)
@@ -35,26 +33,41 @@ import java.util.regex.Pattern;
  * </pre>
  *
  * <p>Instances of {@link JsonPointer} and its constituent {@link RefToken}s are <b>immutable</b>.
+ * Pointers created by {@link #append} share their parent instead of copying its reference tokens,
+ * which are only flattened into an array when they are accessed by position.
  *
  * @since 0.4.8
  */
 class JsonPointer {
-    private final RefToken[] tokens;
+    private final JsonPointer parent;
+    private final RefToken last;
+    private final int size;
+    private volatile RefToken[] tokens;
+    private int hash;
 
     /** A JSON pointer representing the root node of a JSON document */
     public final static JsonPointer ROOT = new JsonPointer(new RefToken[] {});
 
     private JsonPointer(RefToken[] tokens) {
+        this.parent = null;
+        this.size = tokens.length;
+        this.last = size == 0 ? null : tokens[size - 1];
         this.tokens = tokens;
     }
 
+    private JsonPointer(JsonPointer parent, RefToken last) {
+        this.parent = parent;
+        this.size = parent.size + 1;
+        this.last = last;
+    }
+
     /**
      * Constructs a new pointer from a list of reference tokens.
      *
      * @param tokens The list of reference tokens from which to construct the new pointer. This list is not modified.
      */
     public JsonPointer(List<RefToken> tokens) {
-        this.tokens = tokens.toArray(new RefToken[0]);
+        this(tokens.toArray(new RefToken[0]));
     }
 
     /**
@@ -113,7 +126,7 @@ class JsonPointer {
      * @return {@code true} if this pointer represents the root node, {@code false} otherwise.
      */
     public boolean isRoot() {
-        return tokens.length == 0;
+        return size == 0;
     }
 
     /**
@@ -123,9 +136,7 @@ class JsonPointer {
      * @return The new {@link JsonPointer} instance.
      */
     JsonPointer append(String field) {
-        RefToken[] newTokens = Arrays.copyOf(tokens, tokens.length + 1);
-        newTokens[tokens.length] = new RefToken(field);
-        return new JsonPointer(newTokens);
+        return new JsonPointer(this, new RefToken(field));
     }
 
     /**
@@ -135,12 +146,38 @@ class JsonPointer {
      * @return The new {@link JsonPointer} instance.
      */
     JsonPointer append(int index) {
-        return append(Integer.toString(index));
+        return new JsonPointer(this, RefToken.ofIndex(index));
+    }
+
+    /** Returns a pointer made of the specified number of leading reference tokens of this instance. */
+    JsonPointer prefix(int size) {
+        if (size == this.size) return this;
+        return new JsonPointer(Arrays.copyOf(tokens(), size));
     }
 
     /** Returns the number of reference tokens comprising this instance. */
     int size() {
-        return tokens.length;
+        return size;
+    }
+
+    /** Returns the reference tokens of this instance, flattening them from the parent chain on first use. */
+    private RefToken[] tokens() {
+        RefToken[] result = tokens;
+        if (result == null) {
+            result = new RefToken[size];
+            JsonPointer current = this;
+            for (int i = size - 1; i >= 0; i--) {
+                RefToken[] flattened = current.tokens;
+                if (flattened != null) {
+                    System.arraycopy(flattened, 0, result, 0, i + 1);
+                    break;
+                }
+                result[i] = current.last;
+                current = current.parent;
+            }
+            tokens = result;
+        }
+        return result;
     }
 
     /**
@@ -152,7 +189,7 @@ class JsonPointer {
      */
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (RefToken token : tokens) {
+        for (RefToken token : tokens()) {
             sb.append('/');
             sb.append(token);
         }
@@ -165,7 +202,7 @@ class JsonPointer {
      * @return A list of {@link RefToken}s. Modifications to this list do not affect this instance.
      */
     public List<RefToken> decompose() {
-        return Arrays.asList(tokens.clone());
+        return Arrays.asList(tokens().clone());
     }
 
     /**
@@ -176,8 +213,8 @@ class JsonPointer {
      * @throws IndexOutOfBoundsException The specified index is illegal.
      */
     public RefToken get(int index) throws IndexOutOfBoundsException {
-        if (index < 0 || index >= tokens.length) throw new IndexOutOfBoundsException("Illegal index: " + index);
-        return tokens[index];
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Illegal index: " + index);
+        return index == size - 1 ? last : tokens()[index];
     }
 
     /**
@@ -188,7 +225,7 @@ class JsonPointer {
      */
     public RefToken last() {
         if (isRoot()) throw new IllegalStateException("Root pointers contain no reference tokens");
-        return tokens[tokens.length - 1];
+        return last;
     }
 
     /**
@@ -199,13 +236,14 @@ class JsonPointer {
      * @return A {@link JsonPointer} to the parent node.
      */
     public JsonPointer getParent() {
-        return isRoot() ? this : new JsonPointer(Arrays.copyOf(tokens, tokens.length - 1));
+        if (isRoot()) return this;
+        return parent != null ? parent : new JsonPointer(Arrays.copyOf(tokens(), size - 1));
     }
 
     private void error(int atToken, String message, JsonNode document) throws JsonPointerEvaluationException {
         throw new JsonPointerEvaluationException(
                 message,
-                new JsonPointer(Arrays.copyOf(tokens, atToken)),
+                new JsonPointer(Arrays.copyOf(tokens(), atToken)),
                 document);
     }
 
@@ -220,6 +258,7 @@ class JsonPointer {
      * @throws JsonPointerEvaluationException The pointer could not be evaluated.
      */
     public JsonNode evaluate(final JsonNode document) throws JsonPointerEvaluationException {
+        final RefToken[] tokens = tokens();
         JsonNode current = document;
 
         for (int idx = 0; idx < tokens.length; ++idx) {
@@ -250,45 +289,118 @@ class JsonPointer {
         if (o == null || getClass() != o.getClass()) return false;
 
         JsonPointer that = (JsonPointer) o;
-
-        // Probably incorrect - comparing Object[] arrays with Arrays.equals
-        return Arrays.equals(tokens, that.tokens);
+        if (size != that.size) return false;
+
+        // Walk both parent chains until they meet, so pointers sharing a prefix never flatten it
+        JsonPointer left = this;
+        JsonPointer right = that;
+        while (left != right) {
+            if (left.parent == null || right.parent == null)
+                return Arrays.equals(left.tokens(), right.tokens());
+            if (!left.last.equals(right.last))
+                return false;
+            left = left.parent;
+            right = right.parent;
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(tokens);
+        // Same value as Arrays.hashCode(tokens()), built up along the parent chain
+        int result = hash;
+        if (result == 0) {
+            result = parent == null ? Arrays.hashCode(tokens) : 31 * parent.hashCode() + last.hashCode();
+            hash = result;
+        }
+        return result;
     }
 
     /** Represents a single JSON Pointer reference token. */
     static class RefToken {
-        private String decodedToken;
-        transient private Integer index = null;
+        private static final int NOT_AN_INDEX = -1;
+
+        private final String decodedToken;
+        private final int index;
 
         public RefToken(String decodedToken) {
             if (decodedToken == null) throw new IllegalArgumentException("Token can't be null");
             this.decodedToken = decodedToken;
+            this.index = parseIndex(decodedToken);
         }
 
-        private static final Pattern DECODED_TILDA_PATTERN = Pattern.compile("~0");
-        private static final Pattern DECODED_SLASH_PATTERN = Pattern.compile("~1");
+        private RefToken(String decodedToken, int index) {
+            this.decodedToken = decodedToken;
+            this.index = index;
+        }
 
-        private static String decodePath(Object object) {
-            String path = object.toString(); // see http://tools.ietf.org/html/rfc6901#section-4
-            path = DECODED_SLASH_PATTERN.matcher(path).replaceAll("/");
-            return DECODED_TILDA_PATTERN.matcher(path).replaceAll("~");
+        /** Creates a reference token for the specified array index, or {@link #LAST_INDEX}, without parsing it. */
+        static RefToken ofIndex(int index) {
+            if (index == LAST_INDEX) return new RefToken("-", LAST_INDEX);
+            if (index < 0) return new RefToken(Integer.toString(index));
+            return new RefToken(Integer.toString(index), index);
         }
 
-        private static final Pattern ENCODED_TILDA_PATTERN = Pattern.compile("~");
-        private static final Pattern ENCODED_SLASH_PATTERN = Pattern.compile("/");
+        private static String decodePath(String path) {
+            // see http://tools.ietf.org/html/rfc6901#section-4
+            int escape = path.indexOf('~');
+            if (escape < 0) return path;
+
+            StringBuilder sb = new StringBuilder(path.length());
+            sb.append(path, 0, escape);
+            for (int i = escape; i < path.length(); ++i) {
+                char c = path.charAt(i);
+                if (c == '~' && i + 1 < path.length()) {
+                    char next = path.charAt(i + 1);
+                    if (next == '0' || next == '1') {
+                        sb.append(next == '0' ? '~' : '/');
+                        ++i;
+                        continue;
+                    }
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
 
-        private static String encodePath(Object object) {
-            String path = object.toString(); // see http://tools.ietf.org/html/rfc6901#section-4
-            path = ENCODED_TILDA_PATTERN.matcher(path).replaceAll("~0");
-            return ENCODED_SLASH_PATTERN.matcher(path).replaceAll("~1");
+        private static String encodePath(String path) {
+            // see http://tools.ietf.org/html/rfc6901#section-4
+            int i = 0;
+            while (i < path.length() && path.charAt(i) != '~' && path.charAt(i) != '/') ++i;
+            if (i == path.length()) return path;
+
+            StringBuilder sb = new StringBuilder(path.length() + 4);
+            sb.append(path, 0, i);
+            for (; i < path.length(); ++i) {
+                char c = path.charAt(i);
+                switch (c) {
+                    case '~': sb.append("~0"); break;
+                    case '/': sb.append("~1"); break;
+                    default: sb.append(c); break;
+                }
+            }
+            return sb.toString();
         }
 
-        private static final Pattern VALID_ARRAY_IND = Pattern.compile("-|0|(?:[1-9][0-9]*)");
+        /**
+         * Parses "{@code -}", "{@code 0}" or a decimal number without leading zeros; anything else, including
+         * numbers which do not fit in an int, is not an array index.
+         */
+        private static int parseIndex(String token) {
+            int length = token.length();
+            if (length == 0) return NOT_AN_INDEX;
+            if (length == 1 && token.charAt(0) == '-') return LAST_INDEX;
+            if (token.charAt(0) == '0') return length == 1 ? 0 : NOT_AN_INDEX;
+
+            int result = 0;
+            for (int i = 0; i < length; ++i) {
+                int digit = token.charAt(i) - '0';
+                if (digit < 0 || digit > 9) return NOT_AN_INDEX;
+                if (result > (Integer.MAX_VALUE - digit) / 10) return NOT_AN_INDEX;
+                result = result * 10 + digit;
+            }
+            return result;
+        }
 
         public static RefToken parse(String rawToken) {
             if (rawToken == null) throw new IllegalArgumentException("Token can't be null");
@@ -296,13 +408,7 @@ class JsonPointer {
         }
 
         public boolean isArrayIndex() {
-            if (index != null) return true;
-            Matcher matcher = VALID_ARRAY_IND.matcher(decodedToken);
-            if (matcher.matches()) {
-                index = matcher.group().equals("-") ? LAST_INDEX : Integer.parseInt(matcher.group());
-                return true;
-            }
-            return false;
+            return index != NOT_AN_INDEX;
         }
 
         public int getIndex() {
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of parsed JSON pointers, keyed by their string representation.
+ *
+ * <p>Applying many patches which reuse the same paths spends most of its time parsing them again. A cache can be
+ * shared by any number of threads and passed to {@link JsonPatch#apply(com.fasterxml.jackson.databind.JsonNode,
+ * com.fasterxml.jackson.databind.JsonNode, java.util.EnumSet, JsonPointerCache) JsonPatch.apply} and
+ * {@link JsonPatch#applyInPlace(com.fasterxml.jackson.databind.JsonNode, com.fasterxml.jackson.databind.JsonNode,
+ * java.util.EnumSet, JsonPointerCache) JsonPatch.applyInPlace}:
+ *
+ * <pre>
+ *      JsonPointerCache cache = new JsonPointerCache(10000);
+ *      JsonNode target = JsonPatch.apply(patch, source, CompatibilityFlags.defaults(), cache);
+ * </pre>
+ *
+ * <p>The cache is split into segments, each of which evicts its least recently used pointers once it is full.
+ *
+ * @since 0.4.10
+ */
+public final class JsonPointerCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final int maximumSize;
+    private final Segment[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class Segment extends LinkedHashMap<String, JsonPointer> {
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JsonPointer> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maximumSize The maximum number of pointers kept in the cache.
+     * @throws IllegalArgumentException The maximum size is not positive.
+     */
+    public JsonPointerCache(int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        this.maximumSize = maximumSize;
+
+        int segmentCount = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maximumSize));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // spread the remainder so that the capacities add up to maximumSize
+            segments[i] = new Segment(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns the parsed pointer for the specified path, parsing and caching it if it isn't cached yet.
+     *
+     * @throws IllegalArgumentException The specified JSON Pointer is invalid.
+     */
+    JsonPointer get(String path) {
+        if (path == null)
+            return JsonPointer.parse(path);
+
+        Segment segment = segmentFor(path);
+        JsonPointer pointer;
+        synchronized (segment) {
+            pointer = segment.get(path);
+        }
+        if (pointer != null) {
+            hits.incrementAndGet();
+            return pointer;
+        }
+
+        misses.incrementAndGet();
+        pointer = JsonPointer.parse(path);
+        synchronized (segment) {
+            segment.put(path, pointer);
+        }
+        return pointer;
+    }
+
+    private Segment segmentFor(String path) {
+        int hash = path.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /** Returns the number of lookups which found their pointer in the cache. */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Returns the number of lookups which had to parse their pointer. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Returns the maximum number of pointers kept in the cache. */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /** Returns the number of pointers currently in the cache. */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /** Removes all pointers from the cache; the hit and miss counts are kept. */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies a compiled patch in place, applying the operations on disjoint subtrees of the document concurrently.
+ *
+ * <p>A subtree is identified by the first reference tokens of the paths, up to a given depth. The patch is split into
+ * phases: an operation on a shallower path changes the containers holding the subtrees, so it waits for the previous
+ * operations and holds up the next ones, and the other operations are grouped by subtree within their phase. A move or
+ * copy between two subtrees merges their groups. Each group is applied in order by a single task, and the groups of a
+ * phase never touch the same container, so the result is the same as applying the patch sequentially.
+ *
+ * <p>If an operation fails, the groups of its phase are still applied up to their own first failure, and the
+ * exception thrown is the one of the first failing operation of the patch. The modifications are rolled back if the
+ * flags ask so.
+ */
+final class ParallelApplier {
+
+    /** Groups are split between tasks until a task has no more than this many operations to apply. */
+    private static final int TASK_SIZE = 256;
+
+    private final PatchOperation[] operations;
+    private final EnumSet<CompatibilityFlags> flags;
+    private final ForkJoinPool pool;
+    private final int depth;
+    private final List<InPlaceApplyProcessor> processors = new ArrayList<InPlaceApplyProcessor>();
+    private JsonNode target;
+
+    ParallelApplier(PatchOperation[] operations, EnumSet<CompatibilityFlags> flags, ForkJoinPool pool, int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("Depth must be positive: " + depth);
+        this.operations = operations;
+        this.flags = flags;
+        this.pool = pool;
+        this.depth = depth;
+    }
+
+    /** The operations of a phase on the same subtrees, applied in order by the same task and processor. */
+    private static final class Group {
+        private Group merged;
+        private int[] indexes = new int[4];
+        private int size;
+        private InPlaceApplyProcessor processor;
+        private int failedAt = -1;
+        private RuntimeException failure;
+
+        private Group root() {
+            Group group = this;
+            while (group.merged != null)
+                group = group.merged;
+            return group;
+        }
+
+        private void add(int index) {
+            if (size == indexes.length)
+                indexes = Arrays.copyOf(indexes, 2 * size);
+            indexes[size++] = index;
+        }
+    }
+
+    /** Applies the patch to the target in place, returning the patched document. */
+    JsonNode apply(JsonNode source) {
+        target = source;
+        try {
+            Map<JsonPointer, Group> subtrees = new HashMap<JsonPointer, Group>();
+            List<Group> assigned = new ArrayList<Group>();
+            int phaseStart = 0;
+            for (int i = 0; i < operations.length; i++) {
+                PatchOperation operation = operations[i];
+                JsonPointer subtree = subtreeOf(operation.getPath());
+                JsonPointer fromSubtree = operation.getFrom() == null ? subtree : subtreeOf(operation.getFrom());
+                if (subtree == null || fromSubtree == null) {
+                    // a shallow operation is a phase of its own
+                    runPhase(phaseStart, assigned);
+                    subtrees.clear();
+                    assigned.clear();
+                    Group group = new Group();
+                    group.add(i);
+                    run(Collections.singletonList(group));
+                    phaseStart = i + 1;
+                    continue;
+                }
+                Group group = groupOf(subtrees, subtree);
+                if (!fromSubtree.equals(subtree)) {
+                    Group other = groupOf(subtrees, fromSubtree);
+                    if (other != group)
+                        other.merged = group;
+                }
+                assigned.add(group);
+            }
+            runPhase(phaseStart, assigned);
+        } catch (RuntimeException e) {
+            for (int i = processors.size() - 1; i >= 0; i--) {
+                processors.get(i).rollback();
+            }
+            throw e;
+        }
+        return target;
+    }
+
+    /**
+     * Applies the operations of a phase.
+     *
+     * @param assigned The group each operation was assigned to, from the first operation of the phase on.
+     */
+    private void runPhase(int start, List<Group> assigned) {
+        List<Group> groups = new ArrayList<Group>();
+        for (int i = 0; i < assigned.size(); i++) {
+            Group group = assigned.get(i).root();
+            if (group.size == 0)
+                groups.add(group);
+            group.add(start + i);
+        }
+        if (!groups.isEmpty())
+            run(groups);
+    }
+
+    private void run(List<Group> groups) {
+        if (groups.size() == 1) {
+            InPlaceApplyProcessor processor = InPlaceApplyProcessor.forTarget(target, flags);
+            applyGroups(groups, 0, 1, processor);
+            target = processor.result();      // which a shallow operation may have replaced
+        } else {
+            pool.invoke(new Task(groups, 0, groups.size()));
+        }
+
+        Group failed = null;
+        for (Group group : groups) {
+            if (processors.isEmpty() || processors.get(processors.size() - 1) != group.processor)
+                processors.add(group.processor);
+            if (group.failure != null && (failed == null || group.failedAt < failed.failedAt))
+                failed = group;
+        }
+        if (failed != null)
+            throw failed.failure;
+    }
+
+    /** Applies the operations of each of a range of groups in order, until one of them fails. */
+    private void applyGroups(List<Group> groups, int from, int to, InPlaceApplyProcessor processor) {
+        for (int g = from; g < to; g++) {
+            Group group = groups.get(g);
+            group.processor = processor;
+            for (int i = 0; i < group.size; i++) {
+                try {
+                    operations[group.indexes[i]].applyTo(processor);
+                } catch (RuntimeException e) {
+                    group.failedAt = group.indexes[i];
+                    group.failure = e;
+                    break;
+                }
+            }
+            processor.flush();
+        }
+    }
+
+    /** Applies a range of groups, splitting it between tasks. */
+    private final class Task extends RecursiveAction {
+        private final List<Group> groups;
+        private final int from;
+        private final int to;
+
+        private Task(List<Group> groups, int from, int to) {
+            this.groups = groups;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int size = 0;
+            for (int i = from; i < to && size <= TASK_SIZE; i++) {
+                size += groups.get(i).size;
+            }
+            if (to - from == 1 || size <= TASK_SIZE) {
+                applyGroups(groups, from, to, InPlaceApplyProcessor.forTarget(target, flags));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Task(groups, from, middle), new Task(groups, middle, to));
+        }
+    }
+
+    private static Group groupOf(Map<JsonPointer, Group> subtrees, JsonPointer subtree) {
+        Group group = subtrees.get(subtree);
+        if (group == null) {
+            group = new Group();
+            subtrees.put(subtree, group);
+            return group;
+        }
+        Group root = group.root();
+        if (root != group)
+            subtrees.put(subtree, root);
+        return root;
+    }
+
+    /** Returns the subtree holding the node at the path, or {@code null} if the path is too short to be in one. */
+    private JsonPointer subtreeOf(JsonPointer path) {
+        if (path.size() <= depth)
+            return null;
+        return path.prefix(depth);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A single, already validated operation of a JSON patch, with its pointers parsed.
+ */
+final class PatchOperation {
+    private final Operation operation;
+    private final JsonPointer path;
+    private final JsonPointer from;
+    private final JsonNode value;
+
+    PatchOperation(Operation operation, JsonPointer path, JsonPointer from, JsonNode value) {
+        this.operation = operation;
+        this.path = path;
+        this.from = from;
+        this.value = value;
+    }
+
+    Operation getOperation() {
+        return operation;
+    }
+
+    JsonPointer getPath() {
+        return path;
+    }
+
+    /** Returns the source path of a move or copy, {@code null} for other operations. */
+    JsonPointer getFrom() {
+        return from;
+    }
+
+    /** Returns the value of an add, replace or test, {@code null} for other operations. */
+    JsonNode getValue() {
+        return value;
+    }
+
+    /**
+     * Applies this operation through the specified processor. Values are copied before being added to the target, so
+     * this instance is never modified and can be applied any number of times.
+     */
+    void applyTo(JsonPatchProcessor processor) throws JsonPatchApplicationException {
+        applyTo(processor, true);
+    }
+
+    /**
+     * Applies this operation through the specified processor.
+     *
+     * @param copyValues Whether to copy values before adding them to the target. Values which are only compared to
+     *                   the target are never copied.
+     */
+    void applyTo(JsonPatchProcessor processor, boolean copyValues) throws JsonPatchApplicationException {
+        try {
+            switch (operation) {
+                case REMOVE:
+                    processor.remove(path);
+                    break;
+                case ADD:
+                    processor.add(path, copyValues ? value.deepCopy() : value);
+                    break;
+                case REPLACE:
+                    processor.replace(path, copyValues ? value.deepCopy() : value);
+                    break;
+                case MOVE:
+                    processor.move(from, path);
+                    break;
+                case COPY:
+                    processor.copy(from, path);
+                    break;
+                case TEST:
+                    processor.test(path, value);
+                    break;
+            }
+        }
+        catch (JsonPointerEvaluationException e) {
+            throw new JsonPatchApplicationException(e.getMessage(), operation, e.getPath());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Reads a JSON patch from a stream of tokens into {@link PatchOperation}s, without building a tree for the patch
+ * itself: only the {@code value} of each operation is read into a {@link JsonNode}.
+ */
+final class PatchReader {
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final JsonParser parser;
+    private final EnumSet<CompatibilityFlags> flags;
+
+    PatchReader(JsonParser parser, EnumSet<CompatibilityFlags> flags) {
+        this.parser = parser;
+        this.flags = flags;
+    }
+
+    /**
+     * Reads the patch starting at the current (or next) token of the parser, leaving the parser on its closing token.
+     *
+     * @throws InvalidJsonPatchException The input is not a valid JSON patch; the message names the offending operation.
+     */
+    List<PatchOperation> read() throws IOException, InvalidJsonPatchException {
+        List<PatchOperation> operations = new ArrayList<PatchOperation>();
+        try {
+            JsonToken token = parser.getCurrentToken() != null ? parser.getCurrentToken() : parser.nextToken();
+            if (token != JsonToken.START_ARRAY)
+                throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an array)");
+        } catch (JsonProcessingException e) {
+            throw new InvalidJsonPatchException("Invalid JSON Patch payload (" + e.getOriginalMessage() + ")");
+        }
+
+        while (true) {
+            try {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.END_ARRAY)
+                    return operations;
+                operations.add(readOperation(token));
+            } catch (InvalidJsonPatchException e) {
+                throw new InvalidJsonPatchException(e.getMessage() + " at operation " + operations.size());
+            } catch (JsonProcessingException e) {
+                throw new InvalidJsonPatchException(
+                        "Invalid JSON Patch payload (" + e.getOriginalMessage() + ") at operation " + operations.size());
+            }
+        }
+    }
+
+    private PatchOperation readOperation(JsonToken token) throws IOException {
+        if (token == null)
+            throw new InvalidJsonPatchException("Invalid JSON Patch payload (unexpected end of input)");
+        if (token != JsonToken.START_OBJECT)
+            throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an object)");
+
+        String op = null, path = null, from = null;
+        boolean hasOp = false, hasPath = false, hasFrom = false;
+        JsonNode value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if (Constants.OP.equals(field)) {
+                hasOp = true;
+                op = readText(valueToken);
+            } else if (Constants.PATH.equals(field)) {
+                hasPath = true;
+                path = readText(valueToken);
+            } else if (Constants.FROM.equals(field)) {
+                hasFrom = true;
+                from = readText(valueToken);
+            } else if (Constants.VALUE.equals(field)) {
+                value = MAPPER.readTree(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (!hasOp) throw missing(Constants.OP);
+        Operation operation = Operation.fromRfcName(op);
+        if (!hasPath) throw missing(Constants.PATH);
+        JsonPointer pathPointer = parsePointer(path, Constants.PATH);
+
+        switch (operation) {
+            case ADD:
+            case REPLACE:
+            case TEST:
+                if (value == null) {
+                    if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
+                        throw missing(Constants.VALUE);
+                    value = NullNode.getInstance();
+                }
+                return new PatchOperation(operation, pathPointer, null, value);
+
+            case MOVE:
+            case COPY:
+                if (!hasFrom) throw missing(Constants.FROM);
+                return new PatchOperation(operation, pathPointer, parsePointer(from, Constants.FROM), null);
+
+            default:
+                return new PatchOperation(operation, pathPointer, null, null);
+        }
+    }
+
+    private String readText(JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_STRING)
+            return parser.getText();
+        parser.skipChildren();
+        return null;
+    }
+
+    private static JsonPointer parsePointer(String path, String attr) {
+        if (path == null)
+            throw new InvalidJsonPatchException("Invalid JSON Patch payload ('" + attr + "' field is not a string)");
+        try {
+            return JsonPointer.parse(path);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new InvalidJsonPatchException("Invalid JSON Patch payload ('" + attr + "' field: " + e.getMessage() + ")");
+        }
+    }
+
+    private static InvalidJsonPatchException missing(String attr) {
+        return new InvalidJsonPatchException("Invalid JSON Patch payload (missing '" + attr + "' field)");
+    }
+}
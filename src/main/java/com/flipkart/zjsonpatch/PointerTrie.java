@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A trie of JSON pointers, keyed by their tokens as written, without unescaping them, recording the positions of
+ * the patch operations below each path. An operation is recorded once under each ancestor of its path and from-path.
+ */
+final class PointerTrie {
+    private final Node root = new Node();
+
+    /** Orders array index tokens by their value, which for tokens of digits is their length first. */
+    static final Comparator<String> INDEX_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String first, String second) {
+            return first.length() != second.length() ? first.length() - second.length() : first.compareTo(second);
+        }
+    };
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<String, Node>();
+        // The children whose token is made of digits, which may be array elements
+        private final TreeMap<String, Node> elements = new TreeMap<String, Node>(INDEX_ORDER);
+        private final TreeSet<Integer> below = new TreeSet<Integer>();
+        private int count;
+
+        private boolean isEmpty() {
+            return count == 0 && below.isEmpty() && children.isEmpty();
+        }
+    }
+
+    void add(int position, String... paths) {
+        List<Node> ancestors = new ArrayList<Node>();
+        for (String path : paths) {
+            if (path == null)
+                continue;
+            Node node = root;
+            List<String> tokens = tokens(path);
+            for (int i = 0; i < tokens.size(); i++) {
+                if (i > 0)
+                    ancestors.add(node);
+                Node child = node.children.get(tokens.get(i));
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(tokens.get(i), child);
+                    if (isDigits(tokens.get(i)))
+                        node.elements.put(tokens.get(i), child);
+                }
+                node = child;
+            }
+            node.count++;
+        }
+        for (Node ancestor : ancestors) {
+            ancestor.below.add(position);
+        }
+    }
+
+    void remove(int position, String... paths) {
+        for (String path : paths) {
+            if (path != null)
+                remove(root, tokens(path), 0, position);
+        }
+    }
+
+    private static void remove(Node node, List<String> tokens, int depth, int position) {
+        if (depth > 0 && depth < tokens.size())
+            node.below.remove(position);
+        if (depth == tokens.size()) {
+            node.count--;
+            return;
+        }
+        Node child = node.children.get(tokens.get(depth));
+        remove(child, tokens, depth + 1, position);
+        if (child.isEmpty()) {
+            node.children.remove(tokens.get(depth));
+            node.elements.remove(tokens.get(depth));
+        }
+    }
+
+    /** Returns the positions of the operations below the path, or {@code null} if there are none. */
+    TreeSet<Integer> below(String path) {
+        Node node = find(path);
+        return node == null || node.below.isEmpty() ? null : node.below;
+    }
+
+    /** Adds the distinct paths of the operations below the specified one. */
+    void collectBelow(String path, Collection<String> paths) {
+        Node node = find(path);
+        if (node != null)
+            collect(node, path, paths);
+    }
+
+    /**
+     * Adds the distinct paths of the operations on, or below, the elements of the array at the specified path whose
+     * index may be shifted by inserting or removing the specified element: the ones at or after it, and {@code -}.
+     */
+    void collectElementsFrom(String arrayPath, String index, Collection<String> paths) {
+        Node node = find(arrayPath);
+        if (node == null)
+            return;
+        Map<String, Node> elements = "-".equals(index) ? node.elements : node.elements.tailMap(index, true);
+        for (Map.Entry<String, Node> element : elements.entrySet()) {
+            collectFrom(element.getValue(), arrayPath + '/' + element.getKey(), paths);
+        }
+        Node end = node.children.get("-");
+        if (end != null)
+            collectFrom(end, arrayPath + "/-", paths);
+    }
+
+    private static void collectFrom(Node node, String path, Collection<String> paths) {
+        if (node.count > 0)
+            paths.add(path);
+        collect(node, path, paths);
+    }
+
+    private static void collect(Node node, String path, Collection<String> paths) {
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            String childPath = path + '/' + child.getKey();
+            if (child.getValue().count > 0)
+                paths.add(childPath);
+            collect(child.getValue(), childPath, paths);
+        }
+    }
+
+    private Node find(String path) {
+        Node node = root;
+        for (String token : tokens(path)) {
+            node = node.children.get(token);
+            if (node == null)
+                return null;
+        }
+        return node;
+    }
+
+    static boolean isDigits(String token) {
+        if (token.isEmpty())
+            return false;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+
+    /** Splits the path on slashes, without unescaping the tokens, so the root of the document is an empty token. */
+    private static List<String> tokens(String path) {
+        List<String> tokens = new ArrayList<String>();
+        int start = 0;
+        for (int end = path.indexOf('/'); end != -1; end = path.indexOf('/', start)) {
+            tokens.add(path.substring(start, end));
+            start = end + 1;
+        }
+        tokens.add(path.substring(start));
+        return tokens;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Memoizes a bottom-up (Merkle-style) 64-bit structural hash and the subtree size of container nodes,
+ * so that equality of two subtrees can usually be decided without walking them.
+ *
+ * <p>Hashes are consistent with {@link JsonNode#equals(Object)}: equal nodes always have equal hashes
+ * and sizes. As in {@link com.fasterxml.jackson.databind.node.ObjectNode#equals(Object)}, the order of
+ * object fields is not significant.
+ *
+ * <p>Nodes are keyed by identity, hence the cached documents must not be modified while the cache is in use.
+ * Once the roots of the documents have been hashed, the cache is only read and may be shared between threads.
+ */
+final class StructuralHashCache {
+    private static final long ARRAY_SEED = 0x5bd1e9955bd1e995L;
+    private static final long OBJECT_SEED = 0x27d4eb2f165667c5L;
+    private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    private final Map<JsonNode, Entry> entries = new IdentityHashMap<JsonNode, Entry>();
+
+    private static final class Entry {
+        private final long hash;
+        private final int size;
+
+        private Entry(long hash, int size) {
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    long hash(JsonNode node) {
+        return node.isContainerNode() ? entry(node).hash : scalarHash(node);
+    }
+
+    /** Returns the number of nodes in the subtree rooted at the specified node, including itself. */
+    int size(JsonNode node) {
+        return node.isContainerNode() ? entry(node).size : 1;
+    }
+
+    /**
+     * Compares two nodes, short-circuiting on differing hashes or sizes and only falling back
+     * to a deep comparison when they match.
+     */
+    boolean equal(JsonNode first, JsonNode second) {
+        if (first == second)
+            return true;
+        if (first.isContainerNode() != second.isContainerNode())
+            return false;
+        if (first.isContainerNode()) {
+            Entry firstEntry = entry(first);
+            Entry secondEntry = entry(second);
+            if (firstEntry.hash != secondEntry.hash || firstEntry.size != secondEntry.size)
+                return false;
+        }
+        return first.equals(second);
+    }
+
+    /**
+     * Wraps a node into a key whose {@link Object#equals(Object)} and {@link Object#hashCode()} are
+     * backed by this cache, for use in hash based collections and subsequence matching.
+     */
+    Object key(JsonNode node) {
+        return new Key(node);
+    }
+
+    private final class Key {
+        private final JsonNode node;
+        private final long hash;
+
+        private Key(JsonNode node) {
+            this.node = node;
+            this.hash = StructuralHashCache.this.hash(node);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return hash == key.hash && equal(node, key.node);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    private Entry entry(JsonNode node) {
+        Entry entry = entries.get(node);
+        if (entry == null) {
+            entry = compute(node);
+            entries.put(node, entry);
+        }
+        return entry;
+    }
+
+    private Entry compute(JsonNode node) {
+        int size = 1;
+        long hash;
+        if (node.isArray()) {
+            hash = ARRAY_SEED;
+            for (JsonNode child : node) {
+                hash = mix(hash * MULTIPLIER + hash(child));
+                size += size(child);
+            }
+        } else {
+            // Field order is not significant, so combine the fields with a commutative sum
+            long sum = 0;
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                sum += mix(mix(field.getKey().hashCode()) * MULTIPLIER + hash(field.getValue()));
+                size += size(field.getValue());
+            }
+            hash = mix(OBJECT_SEED + sum + node.size());
+        }
+        return new Entry(hash, size);
+    }
+
+    private static long scalarHash(JsonNode node) {
+        return mix(((long) node.getNodeType().ordinal() << 32) | (node.hashCode() & 0xffffffffL));
+    }
+
+    // Finalizer of the SplitMix64 generator, spreads every input bit over the whole output
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Applies a patch in place, recording how to undo each modification so that a failed patch can be rolled back.
+ *
+ * <p>Rolling back costs as much as the modifications already made, regardless of the size of the document. Fields
+ * which were removed and then restored by a rollback end up last in their object.
+ */
+class TransactionalApplyProcessor extends InPlaceApplyProcessor {
+
+    private final List<UndoEntry> undoLog = new ArrayList<UndoEntry>();
+
+    TransactionalApplyProcessor(JsonNode target) {
+        this(target, CompatibilityFlags.defaults());
+    }
+
+    TransactionalApplyProcessor(JsonNode target, EnumSet<CompatibilityFlags> flags) {
+        super(target, flags);
+    }
+
+    private enum Kind { ROOT, FIELD, SET_ELEMENT, INSERT_ELEMENT, REMOVE_ELEMENT, ELEMENTS }
+
+    /** Restores the previous node of a parent at a field or index, or of the root. */
+    private static final class UndoEntry {
+        private final Kind kind;
+        private final JsonNode parent;
+        private final String field;
+        private final int index;
+        private final JsonNode previous;
+
+        private UndoEntry(Kind kind, JsonNode parent, String field, int index, JsonNode previous) {
+            this.kind = kind;
+            this.parent = parent;
+            this.field = field;
+            this.index = index;
+            this.previous = previous;
+        }
+    }
+
+    @Override
+    void setResult(JsonNode target) {
+        undoLog.add(new UndoEntry(Kind.ROOT, null, null, -1, result()));
+        super.setResult(target);
+    }
+
+    @Override
+    void putField(ObjectNode parent, String field, JsonNode value) {
+        undoLog.add(new UndoEntry(Kind.FIELD, parent, field, -1, parent.get(field)));
+        super.putField(parent, field, value);
+    }
+
+    @Override
+    void removeField(ObjectNode parent, String field) {
+        JsonNode previous = parent.get(field);
+        if (previous != null)
+            undoLog.add(new UndoEntry(Kind.FIELD, parent, field, -1, previous));
+        super.removeField(parent, field);
+    }
+
+    @Override
+    void setElement(ArrayNode parent, int index, JsonNode value) {
+        if (index >= 0 && index < parent.size())
+            undoLog.add(new UndoEntry(Kind.SET_ELEMENT, parent, null, index, parent.get(index)));
+        super.setElement(parent, index, value);
+    }
+
+    @Override
+    void insertElement(ArrayNode parent, int index, JsonNode value) {
+        // ArrayNode clamps the index within the bounds of the array
+        int inserted = Math.max(0, Math.min(index, parent.size()));
+        super.insertElement(parent, index, value);
+        undoLog.add(new UndoEntry(Kind.INSERT_ELEMENT, parent, null, inserted, null));
+    }
+
+    @Override
+    void removeElement(ArrayNode parent, int index) {
+        if (index >= 0 && index < parent.size())
+            undoLog.add(new UndoEntry(Kind.REMOVE_ELEMENT, parent, null, index, parent.get(index)));
+        super.removeElement(parent, index);
+    }
+
+    @Override
+    void replaceElements(ArrayNode parent, List<JsonNode> elements) {
+        undoLog.add(new UndoEntry(Kind.ELEMENTS, parent, null, -1, parent.arrayNode().addAll(parent)));
+        super.replaceElements(parent, elements);
+    }
+
+    @Override
+    void rollback() {
+        flush();
+        for (int i = undoLog.size() - 1; i >= 0; i--) {
+            UndoEntry entry = undoLog.get(i);
+            switch (entry.kind) {
+                case ROOT:
+                    super.setResult(entry.previous);
+                    break;
+                case FIELD:
+                    if (entry.previous == null)
+                        ((ObjectNode) entry.parent).remove(entry.field);
+                    else
+                        ((ObjectNode) entry.parent).set(entry.field, entry.previous);
+                    break;
+                case SET_ELEMENT:
+                    ((ArrayNode) entry.parent).set(entry.index, entry.previous);
+                    break;
+                case INSERT_ELEMENT:
+                    ((ArrayNode) entry.parent).remove(entry.index);
+                    break;
+                case REMOVE_ELEMENT:
+                    ((ArrayNode) entry.parent).insert(entry.index, entry.previous);
+                    break;
+                case ELEMENTS:
+                    ((ArrayNode) entry.parent).removeAll().addAll((ArrayNode) entry.previous);
+                    break;
+            }
+        }
+        undoLog.clear();
+        cursor().reset(result());
+    }
+}
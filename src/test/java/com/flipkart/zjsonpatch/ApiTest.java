@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.util.EnumSet;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -68,6 +70,28 @@ public class ApiTest {
         assertTrue(source.findValue("b").isNull());
     }
 
+    @Test
+    public void applyCopiesPatchValuesByDefault() throws Exception {
+        JsonNode patch = readTree("[{ \"op\": \"add\", \"path\": \"/b\", \"value\": { \"c\": 1 } }]");
+        JsonNode target = JsonPatch.apply(patch, newObjectNode());
+        assertNotSame(patch.get(0).get("value"), target.get("b"));
+    }
+
+    @Test
+    public void applyAttachesPatchValuesWhenOwnershipIsHandedOver() throws Exception {
+        JsonNode patch = readTree("[{ \"op\": \"add\", \"path\": \"/b\", \"value\": { \"c\": 1 } }," +
+                "{ \"op\": \"replace\", \"path\": \"/b/c\", \"value\": [2] }," +
+                "{ \"op\": \"test\", \"path\": \"/b\", \"value\": { \"c\": [2] } }]");
+        JsonNode added = patch.get(0).get("value");
+        JsonNode replaced = patch.get(1).get("value");
+        ObjectNode source = newObjectNode();
+
+        JsonPatch.applyInPlace(patch, source, EnumSet.of(CompatibilityFlags.ATTACH_PATCH_VALUES_WITHOUT_COPY));
+
+        assertSame(added, source.get("b"));
+        assertSame(replaced, source.get("b").get("c"));
+    }
+
     @Test(expected = InvalidJsonPatchException.class)
     public void applyingNonArrayPatchShouldThrowAnException() throws IOException {
         JsonNode invalid = objectMapper.readTree("{\"not\": \"a patch\"}");
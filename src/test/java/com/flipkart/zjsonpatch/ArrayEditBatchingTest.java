@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ArrayEditBatchingTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory FACTORY = JsonNodeFactory.instance;
+
+    @Test
+    public void consecutiveArrayEditsAreApplied() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":[1,2,3],\"b\":[4]}");
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/0\",\"value\":0}," +
+                "{\"op\":\"remove\",\"path\":\"/a/2\"}," +
+                "{\"op\":\"test\",\"path\":\"/a/2\",\"value\":3}," +
+                "{\"op\":\"add\",\"path\":\"/a/-\",\"value\":5}," +
+                "{\"op\":\"replace\",\"path\":\"/a/1\",\"value\":6}," +
+                "{\"op\":\"add\",\"path\":\"/b/0\",\"value\":7}," +
+                "{\"op\":\"remove\",\"path\":\"/b/1\"}," +
+                "{\"op\":\"add\",\"path\":\"/a/0\",\"value\":8}]");
+
+        JsonNode result = JsonPatch.apply(patch, source, EnumSet.of(CompatibilityFlags.BATCH_ARRAY_EDITS));
+
+        assertEquals(MAPPER.readTree("{\"a\":[8,0,6,3,5],\"b\":[7]}"), result);
+        assertEquals(MAPPER.readTree("{\"a\":[1,2,3],\"b\":[4]}"), source);
+    }
+
+    @Test
+    public void failuresAreReportedLikeWithoutBatching() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":[1,2,3]}");
+        String[] failing = {
+                "{\"op\":\"test\",\"path\":\"/a/1\",\"value\":2}",
+                "{\"op\":\"test\",\"path\":\"/a/3\",\"value\":2}",
+                "{\"op\":\"add\",\"path\":\"/a/5\",\"value\":2}",
+                "{\"op\":\"replace\",\"path\":\"/a/3\",\"value\":2}",
+                "{\"op\":\"remove\",\"path\":\"/a/3\"}",
+                "{\"op\":\"remove\",\"path\":\"/a/-\"}",
+        };
+        for (String operation : failing) {
+            JsonNode patch = MAPPER.readTree("[{\"op\":\"remove\",\"path\":\"/a/0\"}," +
+                    "{\"op\":\"add\",\"path\":\"/a/1\",\"value\":4}," + operation + "]");
+            assertSameOutcome(patch, source, EnumSet.noneOf(CompatibilityFlags.class));
+        }
+    }
+
+    @Test
+    public void failedBatchIsRolledBack() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":[1,{\"b\":2},3]}");
+        JsonNode element = source.get("a").get(1);
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"remove\",\"path\":\"/a/0\"}," +
+                "{\"op\":\"add\",\"path\":\"/a/0\",\"value\":4}," +
+                "{\"op\":\"remove\",\"path\":\"/a/2\"}," +
+                "{\"op\":\"replace\",\"path\":\"/a/1/b\",\"value\":5}," +
+                "{\"op\":\"add\",\"path\":\"/a/-\",\"value\":6}," +
+                "{\"op\":\"test\",\"path\":\"/a/0\",\"value\":1}]");
+
+        try {
+            JsonPatch.applyInPlace(patch, source,
+                    EnumSet.of(CompatibilityFlags.BATCH_ARRAY_EDITS, CompatibilityFlags.ROLL_BACK_ON_FAILURE));
+            fail("Expected the test operation to fail");
+        } catch (JsonPatchApplicationException e) {
+            assertEquals(MAPPER.readTree("{\"a\":[1,{\"b\":2},3]}"), source);
+            assertSame(element, source.get("a").get(1));
+        }
+    }
+
+    @Test
+    public void generatedArrayPatchesApplyLikeWithoutBatching() {
+        Random random = new Random(13);
+        EnumSet<?>[] modes = {
+                EnumSet.noneOf(CompatibilityFlags.class),
+                EnumSet.of(CompatibilityFlags.SHARE_UNMODIFIED_SOURCE_NODES),
+                EnumSet.of(CompatibilityFlags.ROLL_BACK_ON_FAILURE),
+                EnumSet.of(CompatibilityFlags.REMOVE_NONE_EXISTING_ARRAY_ELEMENT),
+        };
+        for (int i = 0; i < 1000; i++) {
+            ObjectNode source = FACTORY.objectNode();
+            source.set("a", randomArray(random, random.nextInt(300)));
+            source.set("b", randomArray(random, random.nextInt(3)));
+            JsonNode patch = randomPatch(random, source, random.nextInt(50), true);
+            @SuppressWarnings("unchecked")
+            EnumSet<CompatibilityFlags> flags = (EnumSet<CompatibilityFlags>) modes[i % modes.length];
+            assertSameOutcome(patch, source, flags);
+        }
+    }
+
+    @Test
+    public void inverseOfBatchedPatchRestoresSource() {
+        Random random = new Random(17);
+        EnumSet<CompatibilityFlags> flags = EnumSet.of(CompatibilityFlags.BATCH_ARRAY_EDITS);
+        for (int i = 0; i < 200; i++) {
+            ObjectNode source = FACTORY.objectNode();
+            source.set("a", randomArray(random, random.nextInt(500)));
+            source.set("b", randomArray(random, random.nextInt(3)));
+            JsonNode patch = randomPatch(random, source, random.nextInt(200), false);
+
+            AppliedPatch applied = JsonPatch.applyWithInverse(patch, source, flags);
+
+            assertEquals(JsonPatch.apply(patch, source), applied.getResult());
+            assertEquals(source, JsonPatch.apply(applied.getInverse(), applied.getResult(), flags));
+        }
+    }
+
+    /** Applies the patch with and without batching in every way, and checks the results or failures are the same. */
+    private static void assertSameOutcome(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags) {
+        EnumSet<CompatibilityFlags> batching = EnumSet.copyOf(flags);
+        batching.add(CompatibilityFlags.BATCH_ARRAY_EDITS);
+
+        String expected = outcome(patch, source, flags, false);
+        assertEquals(patch.toString(), expected, outcome(patch, source, batching, false));
+        assertEquals(patch.toString(), outcome(patch, source, flags, true), outcome(patch, source, batching, true));
+        assertEquals(patch.toString(), expected, compiledOutcome(patch, source, batching));
+    }
+
+    private static String outcome(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags, boolean inPlace) {
+        JsonNode target = source.deepCopy();
+        try {
+            if (inPlace) {
+                AppliedPatch applied = JsonPatch.applyInPlaceWithInverse(patch, target, flags);
+                return applied.getResult() + " " + applied.getInverse();
+            }
+            AppliedPatch applied = JsonPatch.applyWithInverse(patch, target, flags);
+            assertEquals(source, target);
+            return applied.getResult() + " " + applied.getInverse();
+        } catch (JsonPatchApplicationException e) {
+            return e + " " + target;
+        }
+    }
+
+    private static String compiledOutcome(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags) {
+        JsonNode target = source.deepCopy();
+        try {
+            AppliedPatch applied = JsonPatch.compile(patch, flags).applyWithInverse(target);
+            return applied.getResult() + " " + applied.getInverse();
+        } catch (JsonPatchApplicationException e) {
+            return e + " " + target;
+        }
+    }
+
+    private static ArrayNode randomArray(Random random, int size) {
+        ArrayNode array = FACTORY.arrayNode();
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(10) == 0)
+                array.addObject().put("x", random.nextInt(5));
+            else
+                array.add(random.nextInt(20));
+        }
+        return array;
+    }
+
+    /** Returns operations mostly editing elements of /a, the last of which may fail if {@code failing} is set. */
+    private static JsonNode randomPatch(Random random, JsonNode source, int length, boolean failing) {
+        ArrayNode patch = FACTORY.arrayNode();
+        JsonNode document = source.deepCopy();
+        for (int i = 0; i < length; i++) {
+            String array = random.nextInt(8) == 0 ? "/b" : "/a";
+            int size = document.at(array).size();
+            boolean mayFail = failing && i == length - 1 && random.nextBoolean();
+            int index = random.nextInt(size + (mayFail ? 3 : 1));
+            ObjectNode operation = patch.addObject();
+            switch (random.nextInt(6)) {
+                case 0:
+                    operation.put("op", "add").put("path", array + "/" + (random.nextBoolean() ? "-" : index))
+                            .put("value", random.nextInt(20));
+                    break;
+                case 1:
+                    operation.put("op", "replace").put("path", array + "/" + index).put("value", random.nextInt(20));
+                    break;
+                case 2:
+                    JsonNode element = document.at(array + "/" + index);
+                    operation.put("op", "test").put("path", array + "/" + index)
+                            .set("value", mayFail || element.isMissingNode() ? FACTORY.numberNode(-1) : element);
+                    break;
+                case 3:
+                    operation.put("op", "move").put("from", array + "/" + index).put("path", "/c");
+                    break;
+                default:
+                    operation.put("op", "remove").put("path", array + "/" + index);
+                    break;
+            }
+            try {
+                JsonPatch.applyInPlace(FACTORY.arrayNode().add(operation), document);
+            } catch (JsonPatchApplicationException e) {
+                if (!mayFail)
+                    patch.remove(patch.size() - 1);
+            }
+        }
+        return patch;
+    }
+}
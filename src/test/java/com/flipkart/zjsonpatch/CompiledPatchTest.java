@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompiledPatchTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void compiledPatchAppliesLikePatch() throws IOException {
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/b\",\"value\":{\"c\":1}}," +
+                "{\"op\":\"copy\",\"from\":\"/b\",\"path\":\"/d\"},{\"op\":\"test\",\"path\":\"/a\",\"value\":0}]");
+        JsonNode source = MAPPER.readTree("{\"a\":0}");
+
+        CompiledPatch compiled = JsonPatch.compile(patch);
+
+        assertEquals(3, compiled.size());
+        assertEquals(JsonPatch.apply(patch, source), compiled.apply(source));
+        assertEquals(MAPPER.readTree("{\"a\":0}"), source);
+    }
+
+    @Test
+    public void compiledPatchIsIndependentOfPatchAndTargets() throws IOException {
+        ArrayNode patch = (ArrayNode) MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/b\",\"value\":{\"c\":1}}]");
+        CompiledPatch compiled = JsonPatch.compile(patch);
+        ((ObjectNode) patch.get(0).get("value")).put("c", 2);
+
+        JsonNode first = MAPPER.createObjectNode();
+        JsonNode second = MAPPER.createObjectNode();
+        compiled.applyInPlace(first);
+        compiled.applyInPlace(second);
+        ((ObjectNode) first.get("b")).put("c", 3);
+
+        assertEquals(MAPPER.readTree("{\"b\":{\"c\":1}}"), second);
+        assertNotSame(first.get("b"), second.get("b"));
+    }
+
+    @Test(expected = InvalidJsonPatchException.class)
+    public void invalidPatchIsRejectedWhenCompiled() throws IOException {
+        JsonPatch.compile(MAPPER.readTree("[{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":\"move\",\"path\":\"/b\"}]"));
+    }
+
+    @Test
+    public void compatibilityFlagsAreUsedWhenCompiled() throws IOException {
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a\"}]");
+        CompiledPatch compiled = JsonPatch.compile(patch, EnumSet.of(CompatibilityFlags.MISSING_VALUES_AS_NULLS));
+
+        assertEquals(MAPPER.readTree("{\"a\":null}"), compiled.apply(MAPPER.createObjectNode()));
+    }
+
+    @Test(expected = JsonPatchApplicationException.class)
+    public void failedOperationsThrowApplicationException() throws IOException {
+        JsonPatch.compile(MAPPER.readTree("[{\"op\":\"remove\",\"path\":\"/a/b\"}]")).apply(MAPPER.createObjectNode());
+    }
+
+    @Test
+    public void patchesReadFromBytesApplyLikeTrees() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode patch = JsonDiff.asJson(first, second);
+
+            CompiledPatch compiled = JsonPatch.compile(MAPPER.writeValueAsBytes(patch), CompatibilityFlags.defaults());
+
+            assertEquals(patch.size(), compiled.size());
+            assertEquals(second, compiled.apply(first));
+        }
+    }
+
+    @Test
+    public void patchesReadFromStreamsAllowAnyFieldOrder() throws IOException {
+        String patch = "[{\"value\":[1,{\"x\":null}],\"comment\":{\"op\":\"remove\"},\"path\":\"/a\",\"op\":\"add\"}," +
+                "{\"path\":\"/b\",\"from\":\"/a/1\",\"op\":\"move\"},{\"op\":\"replace\",\"path\":\"/c\",\"value\":null}]";
+
+        CompiledPatch compiled = JsonPatch.compile(
+                new ByteArrayInputStream(patch.getBytes("UTF-8")), CompatibilityFlags.defaults());
+
+        assertEquals(MAPPER.readTree("{\"a\":[1],\"b\":{\"x\":null},\"c\":null}"),
+                compiled.apply(MAPPER.readTree("{\"c\":0}")));
+    }
+
+    @Test
+    public void invalidStreamedPatchesReportOperationIndex() throws IOException {
+        assertInvalid("{}", "not an array");
+        assertInvalid("[{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":\"add\",\"path\":\"/b\"}]",
+                "missing 'value' field) at operation 1");
+        assertInvalid("[{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":\"remove\",\"path\":\"a\"}]", "at operation 1");
+        assertInvalid("[{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":\"frobnicate\",\"path\":\"/a\"}]", "at operation 1");
+        assertInvalid("[{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":", "at operation 2");
+        assertInvalid("[{\"op\":\"remove\",\"path\":\"/a\"},42]", "not an object) at operation 1");
+    }
+
+    private static void assertInvalid(String patch, String expectedMessage) throws IOException {
+        try {
+            JsonPatch.compile(patch.getBytes("UTF-8"), CompatibilityFlags.defaults());
+            fail("Expected InvalidJsonPatchException for " + patch);
+        } catch (InvalidJsonPatchException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+        }
+    }
+}
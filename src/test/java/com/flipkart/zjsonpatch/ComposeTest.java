@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ComposeTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static void assertComposed(String source, String expectedComposed, String... patches) throws IOException {
+        List<JsonNode> patchNodes = new ArrayList<JsonNode>();
+        JsonNode expected = MAPPER.readTree(source);
+        for (String patch : patches) {
+            JsonNode patchNode = MAPPER.readTree(patch);
+            patchNodes.add(patchNode);
+            expected = JsonPatch.apply(patchNode, expected);
+        }
+
+        JsonNode composed = JsonPatch.compose(patchNodes);
+
+        assertEquals(MAPPER.readTree(expectedComposed), composed);
+        assertEquals(expected, JsonPatch.apply(composed, MAPPER.readTree(source)));
+    }
+
+    @Test
+    public void replacementsAreMergedIntoThePreviousOperation() throws IOException {
+        assertComposed("{\"b\":1}",
+                "[{\"op\":\"add\",\"path\":\"/a\",\"value\":2},{\"op\":\"add\",\"path\":\"/c\",\"value\":3},{\"op\":\"remove\",\"path\":\"/a\"}]",
+                "[{\"op\":\"add\",\"path\":\"/a\",\"value\":1}]",
+                "[{\"op\":\"replace\",\"path\":\"/a\",\"value\":2},{\"op\":\"add\",\"path\":\"/c\",\"value\":2}]",
+                "[{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":\"replace\",\"path\":\"/c\",\"value\":3}]");
+    }
+
+    @Test
+    public void addOverwritingMemberIsNotCancelledByRemoval() throws IOException {
+        assertComposed("{\"a\":{\"k0\":1}}",
+                "[{\"op\":\"add\",\"path\":\"/a/k0\",\"value\":2},{\"op\":\"remove\",\"path\":\"/a/k0\"}]",
+                "[{\"op\":\"add\",\"path\":\"/a/k0\",\"value\":2}]",
+                "[{\"op\":\"remove\",\"path\":\"/a/k0\"}]");
+    }
+
+    @Test
+    public void copyOntoItselfIsNotMovedAway() throws IOException {
+        assertComposed("{\"k5\":4}",
+                "[{\"op\":\"copy\",\"from\":\"/k5\",\"path\":\"/k5\"},{\"op\":\"move\",\"from\":\"/k5\",\"path\":\"/k2\"}]",
+                "[{\"op\":\"copy\",\"from\":\"/k5\",\"path\":\"/k5\"}]",
+                "[{\"op\":\"move\",\"from\":\"/k5\",\"path\":\"/k2\"}]");
+    }
+
+    @Test
+    public void moveOverwritingMemberIsNotCombinedWithNextMove() throws IOException {
+        assertComposed("{\"a\":1,\"b\":2}",
+                "[{\"op\":\"move\",\"from\":\"/a\",\"path\":\"/b\"},{\"op\":\"move\",\"from\":\"/b\",\"path\":\"/c\"}]",
+                "[{\"op\":\"move\",\"from\":\"/a\",\"path\":\"/b\"}]",
+                "[{\"op\":\"move\",\"from\":\"/b\",\"path\":\"/c\"}]");
+    }
+
+    @Test
+    public void operationsBelowLaterRemovedOrReplacedPathsAreDropped() throws IOException {
+        assertComposed("{\"a\":{\"x\":1},\"b\":[1,2]}",
+                "[{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":\"replace\",\"path\":\"/b\",\"value\":{}}]",
+                "[{\"op\":\"add\",\"path\":\"/a/y\",\"value\":2},{\"op\":\"remove\",\"path\":\"/b/0\"}]",
+                "[{\"op\":\"replace\",\"path\":\"/a/x\",\"value\":3},{\"op\":\"add\",\"path\":\"/b/-\",\"value\":3}]",
+                "[{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":\"replace\",\"path\":\"/b\",\"value\":{}}]");
+    }
+
+    @Test
+    public void operationsAreNotCombinedAcrossShiftedArrayIndexes() throws IOException {
+        String insertions = "[{\"op\":\"add\",\"path\":\"/0\",\"value\":\"x\"},{\"op\":\"add\",\"path\":\"/0\",\"value\":\"y\"}]";
+        assertComposed("[1,2]",
+                "[{\"op\":\"add\",\"path\":\"/0\",\"value\":\"x\"},{\"op\":\"add\",\"path\":\"/0\",\"value\":\"y\"},{\"op\":\"remove\",\"path\":\"/1\"}]",
+                insertions, "[{\"op\":\"remove\",\"path\":\"/1\"}]");
+    }
+
+    @Test
+    public void operationsAreNotCombinedAcrossReadsOfTheirParent() throws IOException {
+        assertComposed("{}",
+                "[{\"op\":\"add\",\"path\":\"/x\",\"value\":{\"y\":1}},{\"op\":\"copy\",\"from\":\"/x\",\"path\":\"/z\"},{\"op\":\"remove\",\"path\":\"/x/y\"}]",
+                "[{\"op\":\"add\",\"path\":\"/x\",\"value\":{}},{\"op\":\"add\",\"path\":\"/x/y\",\"value\":1}]",
+                "[{\"op\":\"copy\",\"from\":\"/x\",\"path\":\"/z\"},{\"op\":\"remove\",\"path\":\"/x/y\"}]");
+    }
+
+    @Test
+    public void testOperationsAreKept() throws IOException {
+        assertComposed("{\"a\":1}",
+                "[{\"op\":\"test\",\"path\":\"/a\",\"value\":1},{\"op\":\"replace\",\"path\":\"/a\",\"value\":2}," +
+                "{\"op\":\"test\",\"path\":\"/a\",\"value\":2},{\"op\":\"replace\",\"path\":\"/a\",\"value\":3}]",
+                "[{\"op\":\"test\",\"path\":\"/a\",\"value\":1},{\"op\":\"replace\",\"path\":\"/a\",\"value\":2}]",
+                "[{\"op\":\"test\",\"path\":\"/a\",\"value\":2},{\"op\":\"replace\",\"path\":\"/a\",\"value\":3}]");
+    }
+
+    @Test
+    public void operationsAreNotCombinedAcrossTestsOfTheirDescendants() throws IOException {
+        assertComposed("{}",
+                "[{\"op\":\"add\",\"path\":\"/x\",\"value\":{\"y\":1}},{\"op\":\"test\",\"path\":\"/x/y\",\"value\":1}," +
+                "{\"op\":\"replace\",\"path\":\"/x\",\"value\":{}}]",
+                "[{\"op\":\"add\",\"path\":\"/x\",\"value\":{\"y\":1}},{\"op\":\"test\",\"path\":\"/x/y\",\"value\":1}]",
+                "[{\"op\":\"replace\",\"path\":\"/x\",\"value\":{}}]");
+    }
+
+    @Test(expected = JsonPatchApplicationException.class)
+    public void composedPatchFailsLikeTheSequenceOnFailingTest() throws IOException {
+        List<JsonNode> patches = new ArrayList<JsonNode>();
+        patches.add(MAPPER.readTree("[{\"op\":\"replace\",\"path\":\"/a\",\"value\":2}]"));
+        patches.add(MAPPER.readTree("[{\"op\":\"test\",\"path\":\"/a\",\"value\":1},{\"op\":\"replace\",\"path\":\"/a\",\"value\":3}]"));
+
+        JsonPatch.apply(JsonPatch.compose(patches), MAPPER.readTree("{\"a\":1}"));
+    }
+
+    @Test
+    public void composedPatchHasTheEffectOfTheSequence() {
+        for (int i = 0; i < 200; i++) {
+            JsonNode source = TestDataGenerator.generate((int) (Math.random() * 8));
+            JsonNode current = source;
+            List<JsonNode> patches = new ArrayList<JsonNode>();
+            for (int p = 0; p < 5; p++) {
+                JsonNode next = TestDataGenerator.generate((int) (Math.random() * 8));
+                patches.add(JsonDiff.asJson(current, next));
+                current = next;
+            }
+
+            assertEquals(current, JsonPatch.apply(JsonPatch.compose(patches), source));
+        }
+    }
+
+    @Test
+    public void composedPatchOfAnyOperationsHasTheEffectOfTheSequence() {
+        // unlike diffs, these patches add over existing members, copy a value onto itself, and test values
+        Random random = new Random(18);
+        for (int i = 0; i < 500; i++) {
+            JsonNode source = TestDataGenerator.randomDocument(random, 3);
+            ArrayNode patch = TestDataGenerator.randomPatch(random, source, 2 + random.nextInt(30));
+            List<JsonNode> patches = new ArrayList<JsonNode>();
+            ArrayNode current = JsonNodeFactory.instance.arrayNode();
+            for (JsonNode operation : patch) {
+                current.add(operation);
+                if (random.nextInt(3) == 0) {
+                    patches.add(current);
+                    current = JsonNodeFactory.instance.arrayNode();
+                }
+            }
+            patches.add(current);
+
+            assertEquals(JsonPatch.apply(patch, source), JsonPatch.apply(JsonPatch.compose(patches), source));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContainerCursorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @SuppressWarnings("unchecked")
+    private static final EnumSet<CompatibilityFlags>[] MODES = new EnumSet[] {
+            EnumSet.noneOf(CompatibilityFlags.class),
+            EnumSet.of(CompatibilityFlags.SHARE_UNMODIFIED_SOURCE_NODES),
+            EnumSet.of(CompatibilityFlags.ROLL_BACK_ON_FAILURE),
+            EnumSet.of(CompatibilityFlags.BATCH_ARRAY_EDITS),
+    };
+
+    @Test
+    public void cachedContainersAreForgottenWhenAnAncestorIsReplaced() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":{\"b\":{\"c\":1}}}");
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/b/d\",\"value\":2}," +
+                "{\"op\":\"replace\",\"path\":\"/a/b\",\"value\":{\"e\":3}}," +
+                "{\"op\":\"add\",\"path\":\"/a/b/f\",\"value\":4}," +
+                "{\"op\":\"remove\",\"path\":\"/a\"}," +
+                "{\"op\":\"add\",\"path\":\"/a\",\"value\":{\"b\":{}}}," +
+                "{\"op\":\"add\",\"path\":\"/a/b/g\",\"value\":5}]");
+
+        assertAppliedLikeOneOperationAtATime(patch, source);
+    }
+
+    @Test
+    public void cachedContainersAreForgottenWhenAnAncestorArrayShifts() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":[{\"x\":1},{\"x\":2}]}");
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"replace\",\"path\":\"/a/0/x\",\"value\":3}," +
+                "{\"op\":\"add\",\"path\":\"/a/0\",\"value\":{\"x\":4}}," +
+                "{\"op\":\"replace\",\"path\":\"/a/0/x\",\"value\":5}," +
+                "{\"op\":\"remove\",\"path\":\"/a/0\"}," +
+                "{\"op\":\"test\",\"path\":\"/a/0/x\",\"value\":3}," +
+                "{\"op\":\"move\",\"from\":\"/a/1\",\"path\":\"/a/0\"}," +
+                "{\"op\":\"test\",\"path\":\"/a/0/x\",\"value\":2}," +
+                "{\"op\":\"copy\",\"from\":\"/a/1\",\"path\":\"/a/0\"}," +
+                "{\"op\":\"replace\",\"path\":\"/a/0/x\",\"value\":6}," +
+                "{\"op\":\"test\",\"path\":\"/a/1/x\",\"value\":2}]");
+
+        assertAppliedLikeOneOperationAtATime(patch, source);
+    }
+
+    @Test
+    public void failuresAreReportedLikeWithoutCursor() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":{\"b\":[1,{\"c\":2}]}}");
+        String[] failing = {
+                "{\"op\":\"add\",\"path\":\"/a/b/1/c/d\",\"value\":0}",
+                "{\"op\":\"replace\",\"path\":\"/a/b/2/c\",\"value\":0}",
+                "{\"op\":\"remove\",\"path\":\"/a/b/-/c\"}",
+                "{\"op\":\"test\",\"path\":\"/a/b/x\",\"value\":0}",
+                "{\"op\":\"move\",\"from\":\"/a/x/c\",\"path\":\"/d\"}",
+        };
+        for (String operation : failing) {
+            JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/b/1/e\",\"value\":3}," + operation + "]");
+            assertAppliedLikeOneOperationAtATime(patch, source);
+        }
+    }
+
+    @Test
+    public void generatedPatchesApplyLikeOneOperationAtATime() {
+        Random random = new Random(19);
+        for (int i = 0; i < 500; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            assertAppliedLikeOneOperationAtATime(JsonDiff.asJson(first, second), first);
+        }
+    }
+
+    /** Applies the patch in every mode, and checks the outcome is the same as applying its operations one by one. */
+    private static void assertAppliedLikeOneOperationAtATime(JsonNode patch, JsonNode source) {
+        for (EnumSet<CompatibilityFlags> flags : MODES) {
+            String expected;
+            JsonNode target = source.deepCopy();
+            try {
+                for (JsonNode operation : patch) {
+                    ArrayNode single = JsonNodeFactory.instance.arrayNode().add(operation);
+                    target = JsonPatch.apply(single, target, flags);
+                }
+                expected = target.toString();
+            } catch (JsonPatchApplicationException e) {
+                expected = e.toString();
+            }
+
+            String actual;
+            try {
+                actual = JsonPatch.apply(patch, source, flags).toString();
+            } catch (JsonPatchApplicationException e) {
+                actual = e.toString();
+            }
+            assertEquals(flags + " " + patch, expected, actual);
+
+            target = source.deepCopy();
+            try {
+                JsonPatch.applyInPlace(patch, target, flags);
+                actual = target.toString();
+            } catch (JsonPatchApplicationException e) {
+                actual = e.toString();
+            }
+            assertEquals(flags + " " + patch, expected, actual);
+        }
+    }
+}
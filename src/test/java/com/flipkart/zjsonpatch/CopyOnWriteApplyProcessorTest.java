@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CopyOnWriteApplyProcessorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final EnumSet<CompatibilityFlags> SHARING = EnumSet.of(CompatibilityFlags.SHARE_UNMODIFIED_SOURCE_NODES);
+
+    @Test
+    public void unmodifiedSubtreesAreShared() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":{\"b\":[1,{\"c\":2}],\"d\":{\"e\":3}},\"f\":[4]}");
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"replace\",\"path\":\"/a/b/1/c\",\"value\":5}]");
+
+        JsonNode result = JsonPatch.apply(patch, source, SHARING);
+
+        assertEquals(MAPPER.readTree("{\"a\":{\"b\":[1,{\"c\":5}],\"d\":{\"e\":3}},\"f\":[4]}"), result);
+        assertEquals(MAPPER.readTree("{\"a\":{\"b\":[1,{\"c\":2}],\"d\":{\"e\":3}},\"f\":[4]}"), source);
+        assertSame(source.get("f"), result.get("f"));
+        assertSame(source.get("a").get("d"), result.get("a").get("d"));
+        assertNotSame(source.get("a").get("b"), result.get("a").get("b"));
+    }
+
+    @Test
+    public void copiesOfModifiedNodesAreIndependent() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":{\"b\":{\"c\":1}}}");
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/x\",\"value\":0}," +
+                "{\"op\":\"copy\",\"from\":\"/a\",\"path\":\"/z\"}," +
+                "{\"op\":\"replace\",\"path\":\"/z/b/c\",\"value\":2}," +
+                "{\"op\":\"move\",\"from\":\"/a/b\",\"path\":\"/y\"}]");
+
+        JsonNode result = JsonPatch.apply(patch, source, SHARING);
+
+        assertEquals(MAPPER.readTree("{\"a\":{\"x\":0},\"z\":{\"b\":{\"c\":2},\"x\":0},\"y\":{\"c\":1}}"), result);
+        assertEquals(MAPPER.readTree("{\"a\":{\"b\":{\"c\":1}}}"), source);
+        assertSame(source.get("a").get("b"), result.get("y"));
+    }
+
+    @Test
+    public void generatedPatchesApplyLikeCopyingProcessor() {
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode patch = JsonDiff.asJson(first, second);
+            JsonNode firstBefore = first.deepCopy();
+
+            JsonNode result = JsonPatch.apply(patch, first, SHARING);
+
+            assertEquals(second, result);
+            assertEquals(firstBefore, first);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class InversePatchTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static void assertInverse(String source, String patch, String expectedInverse) throws IOException {
+        JsonNode sourceNode = MAPPER.readTree(source);
+        AppliedPatch applied = JsonPatch.applyWithInverse(MAPPER.readTree(patch), sourceNode);
+
+        assertEquals(MAPPER.readTree(expectedInverse), applied.getInverse());
+        assertEquals(sourceNode, JsonPatch.apply(applied.getInverse(), applied.getResult()));
+    }
+
+    @Test
+    public void inverseOfAddRemovesTheAddedNode() throws IOException {
+        assertInverse("{\"a\":[1,2]}", "[{\"op\":\"add\",\"path\":\"/a/-\",\"value\":3},{\"op\":\"add\",\"path\":\"/b\",\"value\":4}]",
+                "[{\"op\":\"remove\",\"path\":\"/b\"},{\"op\":\"remove\",\"path\":\"/a/2\"}]");
+    }
+
+    @Test
+    public void inverseOfAddOverwritingFieldRestoresIt() throws IOException {
+        assertInverse("{\"a\":1}", "[{\"op\":\"add\",\"path\":\"/a\",\"value\":2}]",
+                "[{\"op\":\"replace\",\"path\":\"/a\",\"value\":1}]");
+    }
+
+    @Test
+    public void inverseOfRemoveAndReplaceRestoresDisplacedValues() throws IOException {
+        assertInverse("{\"a\":[1,{\"b\":2}],\"c\":3}", "[{\"op\":\"remove\",\"path\":\"/a/1\"},{\"op\":\"replace\",\"path\":\"/c\",\"value\":4}]",
+                "[{\"op\":\"replace\",\"path\":\"/c\",\"value\":3},{\"op\":\"add\",\"path\":\"/a/1\",\"value\":{\"b\":2}}]");
+    }
+
+    @Test
+    public void inverseOfMoveMovesBack() throws IOException {
+        assertInverse("{\"a\":[1,2,3],\"b\":0}", "[{\"op\":\"move\",\"from\":\"/a/0\",\"path\":\"/a/-\"},{\"op\":\"move\",\"from\":\"/a/0\",\"path\":\"/b\"}]",
+                "[{\"op\":\"replace\",\"path\":\"/b\",\"value\":0},{\"op\":\"add\",\"path\":\"/a/0\",\"value\":2}," +
+                        "{\"op\":\"move\",\"from\":\"/a/2\",\"path\":\"/a/0\"}]");
+    }
+
+    @Test
+    public void inverseOfMoveOverMemberAfterFromRestoresIt() throws IOException {
+        assertInverse("{\"w\":[1,2,{\"a\":0}]}", "[{\"op\":\"move\",\"from\":\"/w/0\",\"path\":\"/w/1/a\"}]",
+                "[{\"op\":\"replace\",\"path\":\"/w/1/a\",\"value\":0},{\"op\":\"add\",\"path\":\"/w/0\",\"value\":1}]");
+    }
+
+    @Test
+    public void inverseOfMoveOverMemberBeforeFromRestoresIt() throws IOException {
+        assertInverse("{\"w\":[{\"a\":0},1,2]}", "[{\"op\":\"move\",\"from\":\"/w/2\",\"path\":\"/w/0/a\"}]",
+                "[{\"op\":\"replace\",\"path\":\"/w/0/a\",\"value\":0},{\"op\":\"add\",\"path\":\"/w/2\",\"value\":2}]");
+    }
+
+    @Test
+    public void inverseOfMoveOverMemberRestoresMovedValueAsMoved() throws IOException {
+        assertInverse("{\"a\":{\"x\":1},\"b\":2}", "[{\"op\":\"move\",\"from\":\"/a\",\"path\":\"/b\"},{\"op\":\"add\",\"path\":\"/b/y\",\"value\":3}]",
+                "[{\"op\":\"remove\",\"path\":\"/b/y\"},{\"op\":\"replace\",\"path\":\"/b\",\"value\":2}," +
+                        "{\"op\":\"add\",\"path\":\"/a\",\"value\":{\"x\":1}}]");
+    }
+
+    @Test
+    public void inverseOfRandomPatchesRestoresSource() {
+        Random random = new Random(16);
+        for (int i = 0; i < 2000; i++) {
+            JsonNode source = TestDataGenerator.randomDocument(random, 4);
+            JsonNode patch = TestDataGenerator.randomPatch(random, source, 1 + random.nextInt(8));
+
+            AppliedPatch applied = JsonPatch.applyWithInverse(patch, source);
+
+            assertEquals(JsonPatch.apply(patch, source), applied.getResult());
+            assertEquals(source, JsonPatch.apply(applied.getInverse(), applied.getResult()));
+        }
+    }
+
+    @Test
+    public void inverseOfCopyAndReplacedRootRestoresThem() throws IOException {
+        assertInverse("{\"a\":{\"b\":1}}", "[{\"op\":\"copy\",\"from\":\"/a\",\"path\":\"/c\"},{\"op\":\"replace\",\"path\":\"\",\"value\":[]}]",
+                "[{\"op\":\"replace\",\"path\":\"\",\"value\":{\"a\":{\"b\":1},\"c\":{\"b\":1}}},{\"op\":\"remove\",\"path\":\"/c\"}]");
+    }
+
+    @Test
+    public void testOperationsHaveNoInverse() throws IOException {
+        assertInverse("{\"a\":1}", "[{\"op\":\"test\",\"path\":\"/a\",\"value\":1}]", "[]");
+    }
+
+    @Test
+    public void inverseOfGeneratedPatchesRestoresSource() {
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode patch = JsonDiff.asJson(first, second);
+            JsonNode firstBefore = first.deepCopy();
+
+            AppliedPatch applied = JsonPatch.applyInPlaceWithInverse(patch, first);
+
+            assertEquals(second, applied.getResult());
+            assertEquals(firstBefore, JsonPatch.apply(applied.getInverse(), applied.getResult()));
+        }
+    }
+
+    @Test
+    public void compiledPatchRecordsInverseWithSharedNodes() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":{\"b\":[1,2]},\"c\":{}}");
+        CompiledPatch compiled = JsonPatch.compile(MAPPER.readTree("[{\"op\":\"remove\",\"path\":\"/a/b/0\"}]"),
+                EnumSet.of(CompatibilityFlags.SHARE_UNMODIFIED_SOURCE_NODES));
+
+        AppliedPatch applied = compiled.applyWithInverse(source);
+
+        assertEquals(MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/b/0\",\"value\":1}]"), applied.getInverse());
+        assertEquals(source, JsonPatch.apply(applied.getInverse(), applied.getResult()));
+    }
+}
@@ -27,8 +27,12 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Random;
+import java.util.function.Function;
 
 /**
  * Unit test
@@ -68,6 +72,194 @@ public class JsonDiffTest {
         }
     }
 
+    @Test
+    public void testLargeArrayDiffScalesWithNumberOfEdits() {
+        ArrayNode first = objectMapper.createArrayNode();
+        for (int i = 0; i < 50000; i++) {
+            first.add(i);
+        }
+        ArrayNode second = first.deepCopy();
+        second.remove(40000);
+        second.insert(25000, "inserted");
+        second.set(10, objectMapper.getNodeFactory().textNode("replaced"));
+        second.remove(3);
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second);
+
+        Assert.assertEquals(4, actualPatch.size());
+        Assert.assertEquals(second, JsonPatch.apply(actualPatch, first));
+    }
+
+    @Test
+    public void testMoveHeavyArrayDiffRoundTrips() {
+        ArrayNode first = objectMapper.createArrayNode();
+        for (int i = 0; i < 4000; i++) {
+            first.add(i);
+        }
+        ArrayNode second = objectMapper.createArrayNode();
+        for (int i = first.size() - 1; i >= 0; i--) {
+            second.add(first.get(i));
+        }
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second);
+
+        for (JsonNode operation : actualPatch) {
+            Assert.assertEquals("move", operation.get("op").textValue());
+        }
+        Assert.assertEquals(second, JsonPatch.apply(actualPatch, first));
+    }
+
+    @Test
+    public void testGeneratedJsonDiffWithLinearSpaceMatching() {
+        DiffOptions options = DiffOptions.defaults().withLinearSpaceThreshold(0);
+        Random random = new Random();
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode actualPatch = JsonDiff.asJson(first, second, DiffFlags.defaults(), options);
+            JsonNode secondPrime = JsonPatch.apply(actualPatch, first);
+            Assert.assertEquals(second, secondPrime);
+        }
+    }
+
+    @Test
+    public void testLinearSpaceMatchingFindsMinimalDiff() throws Exception {
+        JsonNode first = objectMapper.readTree("[1, 2, 3, 4, 5, 6, 7, 8]");
+        JsonNode second = objectMapper.readTree("[0, 2, 3, 9, 5, 6, 8, 10]");
+        DiffOptions options = DiffOptions.defaults().withLinearSpaceThreshold(0);
+
+        JsonNode expected = JsonDiff.asJson(first, second, DiffFlags.dontNormalizeOpIntoMoveAndCopy());
+        JsonNode actual = JsonDiff.asJson(first, second, DiffFlags.dontNormalizeOpIntoMoveAndCopy(), options);
+
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(second, JsonPatch.apply(actual, first));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLinearSpaceThresholdIsRejected() {
+        DiffOptions.defaults().withLinearSpaceThreshold(-1);
+    }
+
+    @Test
+    public void testGeneratedJsonDiffWithStructuralHashes() {
+        EnumSet<DiffFlags> flags = DiffFlags.defaults();
+        flags.add(DiffFlags.CACHE_STRUCTURAL_HASHES);
+        Random random = new Random();
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode actualPatch = JsonDiff.asJson(first, second, flags);
+            Assert.assertEquals(JsonDiff.asJson(first, second), actualPatch);
+            Assert.assertEquals(second, JsonPatch.apply(actualPatch, first));
+        }
+    }
+
+    @Test
+    public void testArrayEditsBetweenCommonPrefixAndSuffixUseCorrectIndices() throws Exception {
+        JsonNode first = objectMapper.readTree("[1, 2, 3, 4, 5, 6]");
+        JsonNode second = objectMapper.readTree("[1, 2, 7, 4, 8, 5, 6]");
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second);
+
+        JsonNode expectedPatch = objectMapper.readTree(
+                "[{\"op\":\"replace\",\"path\":\"/2\",\"value\":7},{\"op\":\"add\",\"path\":\"/4\",\"value\":8}]");
+        Assert.assertEquals(expectedPatch, actualPatch);
+    }
+
+    @Test
+    public void testArrayOfObjectsMatchesStructurallyEqualElements() throws Exception {
+        JsonNode first = objectMapper.readTree("[{\"a\":1,\"b\":[1]},{\"a\":2},{\"a\":3,\"b\":{\"c\":4}}]");
+        JsonNode second = objectMapper.readTree("[{\"b\":[1],\"a\":1},{\"a\":5},{\"b\":{\"c\":4},\"a\":3},{\"a\":2}]");
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second, DiffFlags.dontNormalizeOpIntoMoveAndCopy());
+
+        JsonNode expectedPatch = objectMapper.readTree(
+                "[{\"op\":\"replace\",\"path\":\"/1/a\",\"value\":5},{\"op\":\"add\",\"path\":\"/3\",\"value\":{\"a\":2}}]");
+        Assert.assertEquals(expectedPatch, actualPatch);
+    }
+
+    @Test
+    public void testArrayElementsMatchedByKey() throws Exception {
+        JsonNode first = objectMapper.readTree(
+                "{\"items\":[{\"id\":1,\"qty\":1},{\"id\":2,\"qty\":2},{\"id\":3,\"qty\":3},{\"id\":4,\"qty\":4}]}");
+        JsonNode second = objectMapper.readTree(
+                "{\"items\":[{\"id\":2,\"qty\":2},{\"id\":3,\"qty\":5},{\"id\":4,\"qty\":4},{\"id\":1,\"qty\":1}]}");
+        EnumSet<DiffFlags> flags = EnumSet.of(DiffFlags.MATCH_ARRAY_ELEMENTS_BY_KEY);
+        DiffOptions options = DiffOptions.defaults().withArrayElementKeyField("id");
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second, flags, options);
+
+        JsonNode expectedPatch = objectMapper.readTree("[" +
+                "{\"op\":\"replace\",\"path\":\"/items/2/qty\",\"value\":5}," +
+                "{\"op\":\"move\",\"from\":\"/items/0\",\"path\":\"/items/3\"}]");
+        Assert.assertEquals(expectedPatch, actualPatch);
+        Assert.assertEquals(second, JsonPatch.apply(actualPatch, first));
+    }
+
+    @Test
+    public void testArrayElementsMatchedByKeyExtractor() throws Exception {
+        JsonNode first = objectMapper.readTree(
+                "[{\"lines\":[{\"sku\":\"a\"},{\"sku\":\"b\",\"n\":1},{\"sku\":\"c\"}]}]");
+        JsonNode second = objectMapper.readTree(
+                "[{\"lines\":[{\"sku\":\"d\"},{\"sku\":\"c\"},{\"sku\":\"b\",\"n\":2}]}]");
+        EnumSet<DiffFlags> flags = EnumSet.of(DiffFlags.OMIT_VALUE_ON_REMOVE, DiffFlags.MATCH_ARRAY_ELEMENTS_BY_KEY);
+        DiffOptions options = DiffOptions.defaults().withArrayElementKeyExtractor("/*/lines", new Function<JsonNode, Object>() {
+            @Override
+            public Object apply(JsonNode line) {
+                return line.path("sku").asText();
+            }
+        });
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second, flags, options);
+
+        JsonNode expectedPatch = objectMapper.readTree("[" +
+                "{\"op\":\"remove\",\"path\":\"/0/lines/0\"}," +
+                "{\"op\":\"add\",\"path\":\"/0/lines/0\",\"value\":{\"sku\":\"d\"}}," +
+                "{\"op\":\"move\",\"from\":\"/0/lines/1\",\"path\":\"/0/lines/2\"}," +
+                "{\"op\":\"replace\",\"path\":\"/0/lines/2/n\",\"value\":2}]");
+        Assert.assertEquals(expectedPatch, actualPatch);
+        Assert.assertEquals(second, JsonPatch.apply(actualPatch, first));
+    }
+
+    @Test(timeout = 10000)
+    public void testLargeShuffledArrayMatchedByKey() {
+        Random random = new Random(6);
+        ArrayNode first = objectMapper.createArrayNode();
+        for (int i = 0; i < 30000; i++) {
+            first.addObject().put("id", i).put("v", random.nextInt(10));
+        }
+        List<JsonNode> elements = new ArrayList<JsonNode>();
+        for (JsonNode element : first) {
+            if (random.nextInt(10) != 0)
+                elements.add(element.deepCopy());
+        }
+        Collections.shuffle(elements, random);
+        ArrayNode second = objectMapper.createArrayNode();
+        for (int i = 0; i < elements.size(); i++) {
+            if (random.nextInt(10) == 0)
+                second.addObject().put("id", -i - 1);
+            second.add(elements.get(i));
+        }
+        EnumSet<DiffFlags> flags = EnumSet.of(DiffFlags.MATCH_ARRAY_ELEMENTS_BY_KEY, DiffFlags.OMIT_COPY_OPERATION);
+        DiffOptions options = DiffOptions.defaults().withArrayElementKeyField("id");
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second, flags, options);
+
+        Assert.assertEquals(second, JsonPatch.apply(actualPatch, first));
+    }
+
+    @Test
+    public void testArrayElementsWithoutUniqueKeysAreMatchedByPosition() throws Exception {
+        JsonNode first = objectMapper.readTree("[{\"id\":1,\"v\":1},{\"id\":1,\"v\":2}]");
+        JsonNode second = objectMapper.readTree("[{\"id\":1,\"v\":2},{\"id\":1,\"v\":1}]");
+        EnumSet<DiffFlags> flags = EnumSet.of(DiffFlags.MATCH_ARRAY_ELEMENTS_BY_KEY, DiffFlags.OMIT_MOVE_OPERATION);
+        DiffOptions options = DiffOptions.defaults().withArrayElementKeyField("id");
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second, flags, options);
+
+        Assert.assertEquals(JsonDiff.asJson(first, second, EnumSet.of(DiffFlags.OMIT_MOVE_OPERATION)), actualPatch);
+    }
+
     @Test
     public void testRenderedRemoveOperationOmitsValueByDefault() {
         ObjectNode source = objectMapper.createObjectNode();
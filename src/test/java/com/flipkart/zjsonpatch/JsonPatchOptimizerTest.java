@@ -2,9 +2,16 @@ package com.flipkart.zjsonpatch;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
 
@@ -60,4 +67,167 @@ public class JsonPatchOptimizerTest {
     public void shouldOptimizeComplexSequence() throws Exception {
         assertPatchOptimized("/testdata/optimize/all_together_now.json", "/testdata/optimize/all_together_now.optimized.json");
     }
+
+    @Test
+    public void shouldDropOperationsOnDescendantsOfRemovedPath() throws Exception {
+        assertPatchOptimized("/testdata/optimize/remove_descendants.json", "/testdata/optimize/remove_descendants.optimized.json");
+    }
+
+    @Test
+    public void shouldFollowShiftedArrayIndexesToDropOperationsOnReplacedElement() throws Exception {
+        assertPatchOptimized("/testdata/optimize/replace_shifted_element.json", "/testdata/optimize/replace_shifted_element.optimized.json");
+    }
+
+    @Test
+    public void shouldFoldEditsOfDescendantsIntoAddedValue() throws Exception {
+        assertPatchOptimized("/testdata/optimize/add_descendants.json", "/testdata/optimize/add_descendants.optimized.json");
+    }
+
+    @Test
+    public void shouldNotFoldEditsOfDescendantsAcrossTestOfAncestor() throws Exception {
+        assertPatchOptimized("/testdata/optimize/fold_across_test.json", "/testdata/optimize/fold_across_test.optimized.json");
+    }
+
+    @Test
+    public void shouldLeaveEditOfMemberOfAddedArray() throws Exception {
+        JsonNode patch = TestUtils.DEFAULT_MAPPER.readTree(
+                "[{\"op\":\"add\",\"path\":\"/a\",\"value\":[1]},{\"op\":\"replace\",\"path\":\"/a/q\",\"value\":2}]");
+
+        assertThat(jsonPatchOptimizer.optimize((ArrayNode) patch.deepCopy()), equalTo(patch));
+    }
+
+    @Test
+    public void shouldLeaveReplacementOfEndOfAddedArray() throws Exception {
+        JsonNode patch = TestUtils.DEFAULT_MAPPER.readTree(
+                "[{\"op\":\"add\",\"path\":\"/a\",\"value\":[1]},{\"op\":\"replace\",\"path\":\"/a/-\",\"value\":2}]");
+
+        assertThat(jsonPatchOptimizer.optimize((ArrayNode) patch.deepCopy()), equalTo(patch));
+    }
+
+    @Test
+    public void shouldDropManyOperationsOnDescendantsOfRemovedPath() {
+        ArrayNode patch = JsonNodeFactory.instance.arrayNode();
+        for (int i = 0; i < 500; i++) {
+            ObjectNode operation = patch.addObject();
+            operation.put("op", "replace");
+            operation.put("path", "/a/b/" + (i % 7));
+            operation.put("value", i);
+        }
+        ObjectNode remove = patch.addObject();
+        remove.put("op", "remove");
+        remove.put("path", "/a");
+
+        ArrayNode expected = JsonNodeFactory.instance.arrayNode();
+        expected.add(remove.deepCopy());
+        assertThat(jsonPatchOptimizer.optimize(patch), equalTo((JsonNode) expected));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldOptimizeManyReplacementsOfArrayElements() {
+        assertReplacedTwiceOptimized("/arr/", 20000);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldOptimizeManyReplacementsOfObjectMembers() {
+        assertReplacedTwiceOptimized("/obj/f", 20000);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldFoldManyAddedMembersIntoAddedObject() {
+        assertChildrenFoldedIntoParent("/obj", JsonNodeFactory.instance.objectNode(), "/obj/f", 50000);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldFoldManyAddedElementsIntoAddedArray() {
+        assertChildrenFoldedIntoParent("/arr", JsonNodeFactory.instance.arrayNode(), "/arr/", 50000);
+    }
+
+    private void assertChildrenFoldedIntoParent(String parent, JsonNode empty, String prefix, int count) {
+        ArrayNode patch = JsonNodeFactory.instance.arrayNode();
+        patch.addObject().put("op", "add").put("path", parent).set("value", empty);
+        for (int i = 0; i < count; i++) {
+            patch.addObject().put("op", "add").put("path", prefix + i).put("value", i);
+        }
+        JsonNode expected = JsonPatch.apply(patch, JsonNodeFactory.instance.objectNode()).get(parent.substring(1));
+
+        JsonNode optimized = jsonPatchOptimizer.optimize(patch);
+        assertThat(optimized.size(), equalTo(1));
+        assertThat(optimized.get(0).get("value"), equalTo(expected));
+    }
+
+    private void assertReplacedTwiceOptimized(String prefix, int count) {
+        ArrayNode patch = JsonNodeFactory.instance.arrayNode();
+        ArrayNode expected = JsonNodeFactory.instance.arrayNode();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < count; i++) {
+                patch.addObject().put("op", "replace").put("path", prefix + i).put("value", pass);
+                if (pass == 1)
+                    expected.addObject().put("op", "replace").put("path", prefix + i).put("value", pass);
+            }
+        }
+
+        assertThat(jsonPatchOptimizer.optimize(patch), equalTo((JsonNode) expected));
+    }
+
+    @Test(timeout = 30000)
+    public void shouldOptimizeLargePatchLikeRepeatedScans() {
+        Random random = new Random(17);
+        String[] ops = {"add", "remove", "replace", "move", "copy", "test"};
+        for (int iteration = 0; iteration < 50; iteration++) {
+            ArrayNode patch = JsonNodeFactory.instance.arrayNode();
+            for (int i = 0; i < 300; i++) {
+                ObjectNode operation = patch.addObject();
+                String op = ops[random.nextInt(ops.length)];
+                operation.put("op", op);
+                operation.put("path", randomPath(random));
+                if (op.equals("move") || op.equals("copy"))
+                    operation.put("from", randomPath(random));
+                if (op.equals("add") || op.equals("replace") || op.equals("test"))
+                    operation.set("value", randomValue(random));
+            }
+
+            List<ObjectNode> operations = new ArrayList<>();
+            for (JsonNode operation : patch.deepCopy()) {
+                operations.add((ObjectNode) operation);
+            }
+            List<JsonPatchOptimizer.OperationOptimizer> optimizers = Arrays.asList(
+                    new JsonPatchOptimizer.MoveOperationOptimizer(), new JsonPatchOptimizer.RemoveOperationOptimizer());
+            boolean optimized = true;
+            while (optimized) {
+                optimized = false;
+                for (JsonPatchOptimizer.OperationOptimizer optimizer : optimizers) {
+                    optimized = optimizer.optimize(operations) || optimized;
+                }
+            }
+            ArrayNode expected = JsonNodeFactory.instance.arrayNode();
+            for (ObjectNode operation : operations) {
+                if (operation != null)
+                    expected.add(operation);
+            }
+
+            assertThat(new JsonPatchOptimizer(optimizers).optimize(patch.deepCopy()), equalTo((JsonNode) expected));
+            // the default rules, including the ones on subtrees, give the same result as when scanning the patch
+            JsonNode scanned = new JsonPatchOptimizer().optimize(patch.deepCopy(), false);
+            assertThat(new JsonPatchOptimizer().optimize(patch), equalTo(scanned));
+        }
+    }
+
+    /** Returns a path to a member, or to an element of an array, possibly nested in another element. */
+    private static String randomPath(Random random) {
+        StringBuilder path = new StringBuilder("/p").append(random.nextInt(20));
+        for (int depth = random.nextInt(3); depth > 0; depth--) {
+            int token = random.nextInt(6);
+            path.append('/').append(token == 5 ? "-" : token == 4 ? "q" : String.valueOf(token));
+        }
+        return path.toString();
+    }
+
+    private static JsonNode randomValue(Random random) {
+        if (random.nextInt(3) > 0)
+            return JsonNodeFactory.instance.numberNode(random.nextInt(5));
+        ObjectNode value = JsonNodeFactory.instance.objectNode();
+        value.put("q", random.nextInt(5));
+        value.putArray(String.valueOf(random.nextInt(4))).add(random.nextInt(5));
+        return value;
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonPatchReordererTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static void assertReordered(String patch, String expected) throws IOException {
+        JsonNode reordered = new JsonPatchReorderer().reorder((ArrayNode) MAPPER.readTree(patch));
+        assertEquals(MAPPER.readTree(expected), reordered);
+    }
+
+    @Test
+    public void interleavedOperationsAreGroupedByParentPath() throws IOException {
+        assertReordered("[{\"op\":\"add\",\"path\":\"/a/x\",\"value\":1}," +
+                        "{\"op\":\"replace\",\"path\":\"/b/c/y\",\"value\":2}," +
+                        "{\"op\":\"remove\",\"path\":\"/a/z\"}," +
+                        "{\"op\":\"copy\",\"from\":\"/d\",\"path\":\"/b/c/w\"}," +
+                        "{\"op\":\"test\",\"path\":\"/a/x\",\"value\":1}]",
+                "[{\"op\":\"add\",\"path\":\"/a/x\",\"value\":1}," +
+                        "{\"op\":\"remove\",\"path\":\"/a/z\"}," +
+                        "{\"op\":\"test\",\"path\":\"/a/x\",\"value\":1}," +
+                        "{\"op\":\"replace\",\"path\":\"/b/c/y\",\"value\":2}," +
+                        "{\"op\":\"copy\",\"from\":\"/d\",\"path\":\"/b/c/w\"}]");
+    }
+
+    @Test
+    public void operationsAreNotMovedBeforeShiftsOfAnArrayTheyGoThrough() throws IOException {
+        String patch = "[{\"op\":\"replace\",\"path\":\"/a/3/v\",\"value\":1}," +
+                "{\"op\":\"remove\",\"path\":\"/a/0\"}," +
+                "{\"op\":\"replace\",\"path\":\"/a/3/w\",\"value\":2}]";
+        assertReordered(patch, patch);
+    }
+
+    @Test
+    public void operationsAreNotMovedBeforeTestsOfTheirAncestors() throws IOException {
+        String patch = "[{\"op\":\"replace\",\"path\":\"/b/x\",\"value\":1}," +
+                "{\"op\":\"test\",\"path\":\"/b\",\"value\":{\"x\":1,\"y\":0}}," +
+                "{\"op\":\"replace\",\"path\":\"/a/z\",\"value\":2}," +
+                "{\"op\":\"replace\",\"path\":\"/b/y\",\"value\":3}]";
+        assertReordered(patch, patch);
+    }
+
+    @Test
+    public void operationsAreNotMovedBeforeMovesReadingThem() throws IOException {
+        String patch = "[{\"op\":\"add\",\"path\":\"/a/x\",\"value\":1}," +
+                "{\"op\":\"move\",\"from\":\"/a\",\"path\":\"/b/a\"}," +
+                "{\"op\":\"add\",\"path\":\"/a\",\"value\":{}}," +
+                "{\"op\":\"add\",\"path\":\"/a/y\",\"value\":2}]";
+        assertReordered(patch, patch);
+    }
+
+    @Test
+    public void operationsAreNotMovedBeforeMovesFromTheirPath() throws IOException {
+        String patch = "[{\"op\":\"replace\",\"path\":\"/b/q\",\"value\":1}," +
+                "{\"op\":\"move\",\"from\":\"/b/q\",\"path\":\"/a/k\"}," +
+                "{\"op\":\"add\",\"path\":\"/b/q\",\"value\":2}]";
+        assertReordered(patch, patch);
+    }
+
+    @Test
+    public void generatedPatchesHaveTheSameEffectOnceReordered() {
+        Random random = new Random(23);
+        for (int i = 0; i < 500; i++) {
+            JsonNode source = TestDataGenerator.randomDocument(random, 3);
+            ArrayNode patch = TestDataGenerator.randomPatch(random, source, random.nextInt(60));
+            JsonNode expected = JsonPatch.apply(patch, source);
+
+            JsonNode reordered = new JsonPatchReorderer().reorder(patch.deepCopy());
+
+            assertEquals(patch.size(), reordered.size());
+            assertEquals(patch.toString(), expected.toString(), JsonPatch.apply(reordered, source).toString());
+        }
+    }
+
+    @Test
+    public void diffsHaveTheSameEffectOnceReordered() {
+        Random random = new Random(29);
+        for (int i = 0; i < 500; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode patch = JsonDiff.asJson(first, second);
+            JsonNode expected = JsonPatch.apply(patch, first);
+
+            JsonNode reordered = new JsonPatchReorderer().reorder((ArrayNode) patch.deepCopy());
+
+            assertEquals(expected.toString(), JsonPatch.apply(reordered, first).toString());
+        }
+    }
+}
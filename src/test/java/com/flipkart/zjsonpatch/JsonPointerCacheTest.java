@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class JsonPointerCacheTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void repeatedPathsAreParsedOnce() {
+        JsonPointerCache cache = new JsonPointerCache(100);
+
+        JsonPointer first = cache.get("/items/3/qty");
+        JsonPointer second = cache.get("/items/3/qty");
+
+        assertSame(first, second);
+        assertEquals(JsonPointer.parse("/items/3/qty"), first);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        JsonPointerCache cache = new JsonPointerCache(20);
+        for (int i = 0; i < 1000; i++) {
+            cache.get("/a/" + i);
+        }
+        assertEquals(20, cache.getMaximumSize());
+        assertEquals(true, cache.size() <= 20);
+        assertEquals(1000, cache.getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPathsAreRejected() {
+        new JsonPointerCache(10).get("a");
+    }
+
+    @Test
+    public void applyUsesCache() throws IOException {
+        JsonPointerCache cache = new JsonPointerCache(10);
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"replace\",\"path\":\"/a\",\"value\":1}," +
+                "{\"op\":\"move\",\"from\":\"/a\",\"path\":\"/b\"}]");
+        JsonNode source = MAPPER.readTree("{\"a\":0}");
+
+        JsonNode target = JsonPatch.apply(patch, source, CompatibilityFlags.defaults(), cache);
+        JsonPatch.applyInPlace(patch, source, CompatibilityFlags.defaults(), cache);
+
+        assertEquals(MAPPER.readTree("{\"b\":1}"), target);
+        assertEquals(target, source);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(4, cache.getHitCount());
+    }
+}
@@ -186,5 +186,44 @@ public class JsonPointerTest {
         assertEquals("/ ", JsonPointer.parse("/ ").toString());
         assertEquals("/m~0n", JsonPointer.parse("/m~0n").toString());
     }
-}
 
+    @Test
+    public void appendedPointersBehaveLikeParsedPointers() {
+        JsonPointer base = JsonPointer.ROOT.append("a").append(0);
+        JsonPointer appended = base.append("b~c").append(1);
+        JsonPointer parsed = JsonPointer.parse("/a/0/b~0c/1");
+
+        assertEquals(parsed, appended);
+        assertEquals(appended, parsed);
+        assertEquals(parsed.hashCode(), appended.hashCode());
+        assertEquals("/a/0/b~0c/1", appended.toString());
+        assertEquals(parsed.decompose(), appended.decompose());
+        assertEquals("b~c", appended.get(2).getField());
+        assertEquals(1, appended.last().getIndex());
+        assertSame(base, appended.getParent().getParent());
+        assertEquals(parsed.getParent(), appended.getParent());
+        assertNotEquals(base.append("b~c").append(2), appended);
+        assertNotEquals(JsonPointer.parse("/a/1/b~0c/1"), appended);
+    }
+
+    @Test
+    public void parsesArrayIndicesOverflowingIntAsObjectIndirections() {
+        JsonPointer parsed = JsonPointer.parse("/2147483648");
+        assertFalse(parsed.get(0).isArrayIndex());
+        assertEquals("2147483648", parsed.get(0).getField());
+        assertEquals(Integer.MAX_VALUE, JsonPointer.parse("/2147483647").get(0).getIndex());
+    }
+
+    @Test
+    public void appendsArrayIndices() {
+        assertEquals(JsonPointer.parse("/0/12/-"), JsonPointer.ROOT.append(0).append(12).append(JsonPointer.LAST_INDEX));
+        assertEquals("/0/12/-", JsonPointer.ROOT.append(0).append(12).append(JsonPointer.LAST_INDEX).toString());
+    }
+
+    @Test
+    public void rendersEscapedCharactersOnce() {
+        assertEquals("/a~0~1b/~01", JsonPointer.ROOT.append("a~/b").append("~1").toString());
+        assertEquals("~/", JsonPointer.RefToken.parse("~~1").getField());
+        assertEquals("~x", JsonPointer.RefToken.parse("~x").getField());
+    }
+}
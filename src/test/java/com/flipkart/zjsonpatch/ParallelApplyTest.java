@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ParallelApplyTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @SuppressWarnings("unchecked")
+    private static final EnumSet<CompatibilityFlags>[] MODES = new EnumSet[] {
+            EnumSet.noneOf(CompatibilityFlags.class),
+            EnumSet.of(CompatibilityFlags.ROLL_BACK_ON_FAILURE, CompatibilityFlags.BATCH_ARRAY_EDITS),
+    };
+
+    @AfterClass
+    public static void shutDownPool() {
+        POOL.shutdown();
+    }
+
+    @Test
+    public void operationsOnSubtreesAreAppliedLikeSequentially() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":{\"x\":1},\"b\":[1,2],\"c\":{}}");
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/y\",\"value\":2}," +
+                "{\"op\":\"remove\",\"path\":\"/b/0\"}," +
+                "{\"op\":\"move\",\"from\":\"/a/x\",\"path\":\"/c/x\"}," +
+                "{\"op\":\"add\",\"path\":\"/d\",\"value\":{}}," +
+                "{\"op\":\"copy\",\"from\":\"/c\",\"path\":\"/d/c\"}," +
+                "{\"op\":\"test\",\"path\":\"/a\",\"value\":{\"y\":2}}," +
+                "{\"op\":\"add\",\"path\":\"/b/-\",\"value\":3}]");
+
+        JsonNode result = JsonPatch.compile(patch).apply(source, POOL, 1);
+
+        assertEquals(MAPPER.readTree("{\"a\":{\"y\":2},\"b\":[2,3],\"c\":{\"x\":1},\"d\":{\"c\":{\"x\":1}}}"), result);
+        assertEquals(MAPPER.readTree("{\"a\":{\"x\":1},\"b\":[1,2],\"c\":{}}"), source);
+    }
+
+    @Test
+    public void firstFailingOperationIsReportedAndRolledBack() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":{\"x\":1},\"b\":{\"y\":2}}");
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/z\",\"value\":3}," +
+                "{\"op\":\"replace\",\"path\":\"/b/y\",\"value\":4}," +
+                "{\"op\":\"replace\",\"path\":\"/b/missing\",\"value\":5}," +
+                "{\"op\":\"test\",\"path\":\"/a/x\",\"value\":0}]");
+        CompiledPatch compiled = JsonPatch.compile(patch, EnumSet.of(CompatibilityFlags.ROLL_BACK_ON_FAILURE));
+
+        try {
+            compiled.applyInPlace(source, POOL);
+            fail("Expected the replace operation to fail");
+        } catch (JsonPatchApplicationException e) {
+            assertEquals("[REPLACE Operation] Missing field \"missing\" at /b", e.toString());
+            assertEquals(MAPPER.readTree("{\"a\":{\"x\":1},\"b\":{\"y\":2}}"), source);
+        }
+    }
+
+    @Test
+    public void generatedPatchesApplyLikeSequentially() {
+        Random random = new Random(31);
+        for (int i = 0; i < 300; i++) {
+            ObjectNode source = JsonNodeFactory.instance.objectNode();
+            for (int j = random.nextInt(40); j > 0; j--) {
+                source.set("m" + j, TestDataGenerator.randomDocument(random, 4));
+            }
+            ArrayNode patch = TestDataGenerator.randomPatch(random, source, random.nextInt(200));
+            if (random.nextInt(4) == 0)
+                patch.addObject().put("op", "replace").put("path", "/m" + random.nextInt(40) + "/missing").put("value", 0);
+
+            for (int depth = 1; depth <= 3; depth++) {
+                for (EnumSet<CompatibilityFlags> flags : MODES) {
+                    assertAppliedLikeSequentially(patch, source, flags, depth);
+                }
+            }
+        }
+    }
+
+    private static void assertAppliedLikeSequentially(JsonNode patch, JsonNode source,
+                                                      EnumSet<CompatibilityFlags> flags, int depth) {
+        CompiledPatch compiled = JsonPatch.compile(patch, flags);
+        JsonNode sequential = source.deepCopy();
+        JsonNode parallel = source.deepCopy();
+        String expected;
+        try {
+            compiled.applyInPlace(sequential);
+            expected = sequential.toString();
+        } catch (RuntimeException e) {
+            expected = e.toString();
+        }
+
+        String actual;
+        try {
+            compiled.applyInPlace(parallel, POOL, depth);
+            actual = parallel.toString();
+        } catch (RuntimeException e) {
+            actual = e.toString();
+            if (flags.contains(CompatibilityFlags.ROLL_BACK_ON_FAILURE))
+                assertEquals(source, parallel);
+        }
+        assertEquals(depth + " " + patch, expected, actual);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelDiffTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @SuppressWarnings("unchecked")
+    private static final EnumSet<DiffFlags>[] MODES = new EnumSet[] {
+            DiffFlags.defaults(),
+            DiffFlags.dontNormalizeOpIntoMoveAndCopy(),
+            EnumSet.of(DiffFlags.EMIT_TEST_OPERATIONS, DiffFlags.ADD_ORIGINAL_VALUE_ON_REPLACE),
+            EnumSet.of(DiffFlags.CACHE_STRUCTURAL_HASHES),
+    };
+
+    @AfterClass
+    public static void shutDownPool() {
+        POOL.shutdown();
+    }
+
+    private static void assertSameDiff(JsonNode source, JsonNode target, EnumSet<DiffFlags> flags, DiffOptions options) {
+        String expected = JsonDiff.asJson(source, target, flags, options).toString();
+        for (int threshold : new int[] {1, 2, 8, 64}) {
+            JsonNode actual = JsonDiff.asJson(source, target, flags, options.withParallelThreshold(threshold), POOL);
+            assertEquals("threshold " + threshold, expected, actual.toString());
+        }
+    }
+
+    @Test
+    public void randomDocumentsAreDiffedLikeSequentially() {
+        Random random = new Random(24);
+        for (int i = 0; i < 200; i++) {
+            JsonNode source = TestDataGenerator.randomDocument(random, 5);
+            JsonNode target = JsonPatch.apply(TestDataGenerator.randomPatch(random, source, 1 + random.nextInt(20)), source);
+            for (EnumSet<DiffFlags> flags : MODES) {
+                assertSameDiff(source, target, flags, DiffOptions.defaults());
+            }
+        }
+    }
+
+    @Test
+    public void wideObjectsAndLargeArraysAreDiffedLikeSequentially() {
+        Random random = new Random(7);
+        ObjectNode source = JsonNodeFactory.instance.objectNode();
+        for (int i = 0; i < 500; i++) {
+            source.set("f" + i, TestDataGenerator.randomDocument(random, 3));
+        }
+        ArrayNode array = source.putArray("array");
+        for (int i = 0; i < 2000; i++) {
+            array.add(TestDataGenerator.randomDocument(random, 2));
+        }
+        JsonNode target = JsonPatch.apply(TestDataGenerator.randomPatch(random, source, 300), source);
+        for (EnumSet<DiffFlags> flags : MODES) {
+            assertSameDiff(source, target, flags, DiffOptions.defaults());
+        }
+    }
+
+    @Test
+    public void arraysMatchedByKeyAreDiffedLikeSequentially() {
+        Random random = new Random(11);
+        ArrayNode source = JsonNodeFactory.instance.arrayNode();
+        for (int i = 0; i < 300; i++) {
+            source.addObject().put("id", i).set("value", TestDataGenerator.randomDocument(random, 3));
+        }
+        ArrayNode target = JsonNodeFactory.instance.arrayNode();
+        for (JsonNode element : source) {
+            if (random.nextInt(10) == 0)
+                continue;
+            ObjectNode copy = element.deepCopy();
+            if (random.nextInt(3) == 0)
+                copy.set("value", TestDataGenerator.randomDocument(random, 3));
+            target.insert(random.nextInt(10) == 0 ? random.nextInt(target.size() + 1) : target.size(), copy);
+        }
+
+        EnumSet<DiffFlags> flags = DiffFlags.defaults().clone();
+        flags.add(DiffFlags.MATCH_ARRAY_ELEMENTS_BY_KEY);
+        assertSameDiff(source, target, flags, DiffOptions.defaults().withArrayElementKeyField("id"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thresholdMustBePositive() {
+        DiffOptions.defaults().withParallelThreshold(0);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamingDiffTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @SuppressWarnings("unchecked")
+    private static final EnumSet<DiffFlags>[] MODES = new EnumSet[] {
+            DiffFlags.defaults(),
+            DiffFlags.dontNormalizeOpIntoMoveAndCopy(),
+            EnumSet.of(DiffFlags.EMIT_TEST_OPERATIONS, DiffFlags.ADD_ORIGINAL_VALUE_ON_REPLACE),
+            EnumSet.of(DiffFlags.OMIT_VALUE_ON_REMOVE),
+    };
+
+    private static String write(JsonNode source, JsonNode target, EnumSet<DiffFlags> flags, JsonFactory factory)
+            throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonGenerator out = factory.createGenerator(writer);
+        JsonDiff.write(source, target, flags, out);
+        out.close();
+        return writer.toString();
+    }
+
+    @Test
+    public void writtenPatchIsTheComputedOne() throws IOException {
+        Random random = new Random(25);
+        for (int i = 0; i < 200; i++) {
+            JsonNode source = TestDataGenerator.randomDocument(random, 5);
+            JsonNode target = JsonPatch.apply(TestDataGenerator.randomPatch(random, source, 1 + random.nextInt(20)), source);
+            for (EnumSet<DiffFlags> flags : MODES) {
+                String expected = MAPPER.writeValueAsString(JsonDiff.asJson(source, target, flags));
+                assertEquals(expected, write(source, target, flags, MAPPER.getFactory()));
+            }
+        }
+    }
+
+    @Test
+    public void generatorNeedsNoCodec() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":[1,{\"b\":2}],\"c\":\"d\"}");
+        JsonNode target = MAPPER.readTree("{\"a\":[{\"b\":3},1],\"e\":{\"f\":null}}");
+
+        String written = write(source, target, DiffFlags.defaults(), new JsonFactory());
+        assertEquals(JsonDiff.asJson(source, target), MAPPER.readTree(written));
+    }
+
+    @Test
+    public void emptyPatchIsAnEmptyArray() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":1}");
+
+        assertEquals("[]", write(source, source.deepCopy(), DiffFlags.defaults(), MAPPER.getFactory()));
+    }
+}
@@ -0,0 +1,50 @@
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StructuralHashCacheTest {
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void equalDocumentsHaveEqualHashesRegardlessOfFieldOrder() throws IOException {
+        JsonNode first = mapper.readTree("{\"a\":[1,{\"b\":\"c\",\"d\":null}],\"e\":2.5}");
+        JsonNode second = mapper.readTree("{\"e\":2.5,\"a\":[1,{\"d\":null,\"b\":\"c\"}]}");
+        StructuralHashCache hashes = new StructuralHashCache();
+
+        assertEquals(hashes.hash(first), hashes.hash(second));
+        assertEquals(7, hashes.size(first));
+        assertTrue(hashes.equal(first, second));
+    }
+
+    @Test
+    public void differentDocumentsAreNotEqual() throws IOException {
+        StructuralHashCache hashes = new StructuralHashCache();
+        JsonNode first = mapper.readTree("{\"a\":[1,2]}");
+
+        for (String other : new String[] {"{\"a\":[2,1]}", "{\"a\":[1,2,3]}", "{\"b\":[1,2]}", "[1,2]", "{\"a\":[1,\"2\"]}"}) {
+            JsonNode second = mapper.readTree(other);
+            assertNotEquals(other, hashes.hash(first), hashes.hash(second));
+            assertFalse(other, hashes.equal(first, second));
+        }
+    }
+
+    @Test
+    public void keysFollowStructuralEquality() throws IOException {
+        StructuralHashCache hashes = new StructuralHashCache();
+        Object first = hashes.key(mapper.readTree("{\"a\":1,\"b\":[true]}"));
+        Object second = hashes.key(mapper.readTree("{\"b\":[true],\"a\":1}"));
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+}
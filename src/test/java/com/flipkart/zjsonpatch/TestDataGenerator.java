@@ -21,7 +21,9 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
@@ -62,4 +64,73 @@ public class TestDataGenerator {
         }
         return countryNode;
     }
+
+    /** Returns a random document of numbers, arrays and objects with fields k0 to k5, at most as deep as specified. */
+    public static JsonNode randomDocument(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0)
+            return JsonNodeFactory.instance.numberNode(random.nextInt(10));
+        if (random.nextBoolean()) {
+            ArrayNode array = JsonNodeFactory.instance.arrayNode();
+            for (int i = random.nextInt(4); i > 0; i--) {
+                array.add(randomDocument(random, depth - 1));
+            }
+            return array;
+        }
+        ObjectNode object = JsonNodeFactory.instance.objectNode();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            object.set("k" + random.nextInt(6), randomDocument(random, depth - 1));
+        }
+        return object;
+    }
+
+    /** Returns operations on random paths of the document, each of which applies after the previous ones. */
+    public static ArrayNode randomPatch(Random random, JsonNode source, int length) {
+        ArrayNode patch = JsonNodeFactory.instance.arrayNode();
+        JsonNode document = source.deepCopy();
+        String[] ops = {"add", "remove", "replace", "move", "copy", "test"};
+        while (patch.size() < length) {
+            List<String> paths = new ArrayList<String>();
+            collectPaths(document, "", paths);
+            String path = paths.get(random.nextInt(paths.size()));
+            ObjectNode operation = JsonNodeFactory.instance.objectNode();
+            String op = ops[random.nextInt(ops.length)];
+            operation.put("op", op);
+            if (op.equals("add") || op.equals("move") || op.equals("copy")) {
+                JsonNode parent = document.at(path);
+                if (parent.isArray())
+                    path += "/" + (random.nextInt(4) == 0 ? "-" : String.valueOf(random.nextInt(parent.size() + 1)));
+                else
+                    path += "/k" + random.nextInt(6);
+            }
+            operation.put("path", path);
+            if (op.equals("move") || op.equals("copy"))
+                operation.put("from", paths.get(random.nextInt(paths.size())));
+            if (op.equals("test"))
+                operation.set("value", document.at(path));
+            else if (op.equals("add") || op.equals("replace"))
+                operation.set("value", randomDocument(random, 2));
+            try {
+                document = JsonPatch.apply(JsonNodeFactory.instance.arrayNode().add(operation), document);
+                patch.add(operation);
+            } catch (RuntimeException e) {
+                // try another operation
+            }
+        }
+        return patch;
+    }
+
+    private static void collectPaths(JsonNode node, String path, List<String> paths) {
+        paths.add(path);
+        if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                collectPaths(node.get(i), path + "/" + i, paths);
+            }
+        } else if (node.isObject()) {
+            Iterator<String> fields = node.fieldNames();
+            while (fields.hasNext()) {
+                String field = fields.next();
+                collectPaths(node.get(field), path + "/" + field, paths);
+            }
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TransactionalApplyProcessorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final EnumSet<CompatibilityFlags> ATOMIC = EnumSet.of(CompatibilityFlags.ROLL_BACK_ON_FAILURE);
+
+    @Test
+    public void failedPatchIsRolledBack() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":[1,2,{\"b\":3}],\"c\":{\"d\":4}}");
+        JsonNode nested = source.get("a").get(2);
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"remove\",\"path\":\"/a/0\"}," +
+                "{\"op\":\"move\",\"from\":\"/a/1\",\"path\":\"/c/e\"}," +
+                "{\"op\":\"replace\",\"path\":\"/c/d\",\"value\":5}," +
+                "{\"op\":\"add\",\"path\":\"/a/-\",\"value\":6}," +
+                "{\"op\":\"copy\",\"from\":\"/c\",\"path\":\"/f\"}," +
+                "{\"op\":\"test\",\"path\":\"/c/d\",\"value\":4}]");
+
+        try {
+            JsonPatch.applyInPlace(patch, source, ATOMIC);
+            fail("Expected the test operation to fail");
+        } catch (JsonPatchApplicationException e) {
+            assertEquals(MAPPER.readTree("{\"a\":[1,2,{\"b\":3}],\"c\":{\"d\":4}}"), source);
+            assertSame(nested, source.get("a").get(2));
+        }
+    }
+
+    @Test
+    public void compiledPatchIsRolledBack() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"a\":[1,2]}");
+        CompiledPatch compiled = JsonPatch.compile(MAPPER.readTree("[{\"op\":\"replace\",\"path\":\"/a/1\",\"value\":0}," +
+                "{\"op\":\"add\",\"path\":\"/a/9\",\"value\":0}]"), ATOMIC);
+
+        try {
+            compiled.applyInPlace(source);
+            fail("Expected the add operation to fail");
+        } catch (JsonPatchApplicationException e) {
+            assertEquals(MAPPER.readTree("{\"a\":[1,2]}"), source);
+        }
+    }
+
+    @Test
+    public void generatedPatchesAreRolledBackWhenTheirLastOperationFails() {
+        Random random = new Random(11);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            ArrayNode patch = (ArrayNode) JsonDiff.asJson(first, second);
+            patch.addObject().put("op", "remove").put("path", "/missing/field");
+            JsonNode firstBefore = first.deepCopy();
+
+            try {
+                JsonPatch.applyInPlace(patch, first, ATOMIC);
+                fail("Expected the last operation to fail");
+            } catch (JsonPatchApplicationException e) {
+                assertEquals(firstBefore, first);
+            }
+        }
+    }
+}